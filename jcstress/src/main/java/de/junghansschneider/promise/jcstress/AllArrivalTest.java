@@ -0,0 +1,62 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * An input of <code>all</code> settling while <code>all</code> still registers its handlers: <code>all</code> must
+ * not resolve before all of its inputs have arrived.
+ *
+ * r1: whether <code>all</code> was finished before the second input was resolved, r2: whether it resolved with both
+ * values afterwards
+ */
+@JCStressTest
+@Description("Promise.all with an input arriving during registration")
+@Outcome(id = "0, 1", expect = ACCEPTABLE, desc = "Resolved with both values after both arrived")
+@Outcome(id = "1, .*", expect = FORBIDDEN, desc = "Resolved before the second input arrived")
+@Outcome(expect = FORBIDDEN, desc = "Wrong values")
+@State
+public class AllArrivalTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private final Deferred<Integer> mFirst = new Deferred<Integer>();
+    private final Deferred<Integer> mSecond = new Deferred<Integer>();
+    private Promise<Object[]> mAll;
+
+    @Actor
+    public void resolver() {
+        mFirst.resolve(1);
+    }
+
+    @Actor
+    public void gatherer() {
+        mAll = Promise.all(mFirst.getPromise(), mSecond.getPromise());
+    }
+
+    @Arbiter
+    public void arbiter(II_Result r) {
+        r.r1 = mAll.isFinished() ? 1 : 0;
+        mSecond.resolve(2);
+        Object[] values = mAll.getValue();
+        r.r2 = (values != null && Integer.valueOf(1).equals(values[0]) && Integer.valueOf(2).equals(values[1])) ? 1 : 0;
+    }
+
+}
@@ -0,0 +1,72 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Promise;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+import java.util.concurrent.Executor;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Characterizes <code>setDefaultExecutor</code>: The static field is written without synchronization, so another
+ * thread may see a new executor without seeing its initialized fields.
+ *
+ * r1: -1 if the reader saw the old executor, otherwise the field of the new one
+ */
+@JCStressTest
+@Description("Publication of the default executor")
+@Outcome(id = "-1", expect = ACCEPTABLE, desc = "Old executor seen")
+@Outcome(id = "42", expect = ACCEPTABLE, desc = "New executor seen fully initialized")
+@Outcome(id = "0", expect = ACCEPTABLE_INTERESTING, desc = "New executor seen, but not its field (unsafe publication)")
+@Outcome(expect = FORBIDDEN, desc = "Unexpected")
+@State
+public class DefaultExecutorPublicationTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    @Actor
+    public void writer() {
+        Promise.setDefaultExecutor(new MarkerExecutor(42));
+    }
+
+    @Actor
+    public void reader(I_Result r) {
+        Executor executor = Promise.getDefaultExecutor();
+        r.r1 = (executor instanceof MarkerExecutor) ? ((MarkerExecutor) executor).marker : -1;
+    }
+
+    @Arbiter
+    public void arbiter() {
+        Promise.setDefaultExecutor(StressSupport.DIRECT_EXECUTOR);
+    }
+
+
+    private static class MarkerExecutor implements Executor {
+        int marker;
+
+        MarkerExecutor(int marker) {
+            this.marker = marker;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseErrorHandler;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Characterizes <code>setFallbackErrorHandler</code> racing with an unhandled rejection: The static field is written
+ * without synchronization, but the handler wrapper only has final fields - so the new handler is either not seen or
+ * seen fully initialized, and it's called at most once.
+ *
+ * r1: calls of the new handler, r2: whether the promise ended rejected with the error
+ */
+@JCStressTest
+@Description("Publication of the fallback error handler")
+@Outcome(id = "0, 1", expect = ACCEPTABLE, desc = "Old handler got the rejection")
+@Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "New handler got the rejection")
+@Outcome(expect = FORBIDDEN, desc = "New handler called twice or rejection lost")
+@State
+public class FallbackErrorHandlerPublicationTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private static final Exception ERROR = new Exception("Unhandled");
+
+    private final Deferred<Integer> mDeferred = new Deferred<Integer>();
+    private final AtomicInteger mNewHandlerCalls = new AtomicInteger();
+    private final CountingHandler mNewHandler = new CountingHandler(mNewHandlerCalls);
+
+    @Actor
+    public void writer() {
+        Promise.setFallbackErrorHandler(StressSupport.DIRECT_EXECUTOR, mNewHandler);
+    }
+
+    @Actor
+    public void rejecter() {
+        mDeferred.reject(ERROR);
+    }
+
+    @Arbiter
+    public void arbiter(II_Result r) {
+        Promise.setFallbackErrorHandler(StressSupport.DIRECT_EXECUTOR, StressSupport.QUIET_ERROR_HANDLER);
+        r.r1 = mNewHandlerCalls.get();
+        r.r2 = (mDeferred.getPromise().getRejectCause() == ERROR) ? 1 : 0;
+    }
+
+
+    private static class CountingHandler implements PromiseErrorHandler {
+        private final AtomicInteger mCalls;
+
+        CountingHandler(AtomicInteger calls) {
+            mCalls = calls;
+        }
+
+        @Override
+        public void onError(Throwable thr) {
+            mCalls.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.PromiseValueHandler;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Registering a handler while the promise settles: The handler is called exactly once - either by the settling
+ * thread or by the registering thread - and sees the fully constructed value.
+ *
+ * r1: the number of handler calls, r2: the field of the value the handler saw
+ */
+@JCStressTest
+@Description("Handler registration racing with settlement")
+@Outcome(id = "1, 42", expect = ACCEPTABLE, desc = "Handler called once with the value")
+@Outcome(expect = FORBIDDEN, desc = "Handler lost, called twice or saw a partially published value")
+@State
+public class HandlerRegistrationTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private final Deferred<StressSupport.Holder> mDeferred = new Deferred<StressSupport.Holder>();
+    private final AtomicInteger mCallCount = new AtomicInteger();
+    private volatile int mSeenX = -1;
+
+    @Actor
+    public void resolver() {
+        mDeferred.resolve(new StressSupport.Holder(42));
+    }
+
+    @Actor
+    public void subscriber() {
+        mDeferred.getPromise().onValue(StressSupport.DIRECT_EXECUTOR, new PromiseValueHandler<StressSupport.Holder>() {
+            @Override
+            public void onValue(StressSupport.Holder value) {
+                mCallCount.incrementAndGet();
+                mSeenX = value.x;
+            }
+        });
+    }
+
+    @Arbiter
+    public void arbiter(II_Result r) {
+        r.r1 = mCallCount.get();
+        r.r2 = mSeenX;
+    }
+
+}
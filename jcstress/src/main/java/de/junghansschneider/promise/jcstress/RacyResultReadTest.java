@@ -0,0 +1,62 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Characterizes the lock-free reads of <code>isFinished()</code> and <code>getValue()</code>: They read the
+ * non-volatile result field without a lock, so there is no happens-before edge to the resolving thread. The
+ * interesting outcomes are allowed by the Java memory model today - they would become forbidden by making the result
+ * field volatile.
+ *
+ * r1: -2 if not finished yet, -1 if getValue() returned null after isFinished() returned true, otherwise the field of
+ * the value
+ */
+@JCStressTest
+@Description("isFinished() and getValue() without synchronization")
+@Outcome(id = "-2", expect = ACCEPTABLE, desc = "Not finished yet")
+@Outcome(id = "42", expect = ACCEPTABLE, desc = "Finished with the fully published value")
+@Outcome(id = "-1", expect = ACCEPTABLE_INTERESTING, desc = "getValue() read an older result than isFinished()")
+@Outcome(id = "0", expect = ACCEPTABLE_INTERESTING, desc = "Value seen, but its field not (no happens-before)")
+@Outcome(expect = FORBIDDEN, desc = "Unexpected")
+@State
+public class RacyResultReadTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private final Deferred<StressSupport.Holder> mDeferred = new Deferred<StressSupport.Holder>();
+
+    @Actor
+    public void resolver() {
+        mDeferred.resolve(new StressSupport.Holder(42));
+    }
+
+    @Actor
+    public void reader(I_Result r) {
+        Promise<StressSupport.Holder> promise = mDeferred.getPromise();
+        if (! promise.isFinished()) {
+            r.r1 = -2;
+        } else {
+            StressSupport.Holder value = promise.getValue();
+            r.r1 = (value == null) ? -1 : value.x;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Resolving and cancelling race: Exactly one of them wins, and <code>cancel()</code> reports truthfully whether it
+ * won.
+ *
+ * r1: whether cancel() returned true, r2: the final state (1 = resolved, 2 = cancelled)
+ */
+@JCStressTest
+@Description("Concurrent resolve and cancel")
+@Outcome(id = "0, 1", expect = ACCEPTABLE, desc = "Resolve won")
+@Outcome(id = "1, 2", expect = ACCEPTABLE, desc = "Cancel won")
+@Outcome(expect = FORBIDDEN, desc = "cancel() result doesn't match the final state")
+@State
+public class ResolveCancelTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private final Deferred<Integer> mDeferred = new Deferred<Integer>();
+
+    @Actor
+    public void resolver() {
+        mDeferred.resolve(42);
+    }
+
+    @Actor
+    public void canceller(II_Result r) {
+        r.r1 = mDeferred.getPromise().cancel() ? 1 : 0;
+    }
+
+    @Arbiter
+    public void arbiter(II_Result r) {
+        Promise<Integer> promise = mDeferred.getPromise();
+        if (promise.isCancelled()) {
+            r.r2 = 2;
+        } else if (promise.isFinished() && promise.getValue() == 42) {
+            r.r2 = 1;
+        } else {
+            r.r2 = 0;
+        }
+    }
+
+}
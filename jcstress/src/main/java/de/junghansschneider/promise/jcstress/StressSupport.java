@@ -0,0 +1,55 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseErrorHandler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Shared setup of the stress tests: Handlers run synchronously and expected rejections aren't printed.
+ */
+final class StressSupport {
+
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    static final PromiseErrorHandler QUIET_ERROR_HANDLER = new PromiseErrorHandler() {
+        @Override
+        public void onError(Throwable thr) {
+        }
+    };
+
+    static {
+        Promise.setDefaultExecutor(DIRECT_EXECUTOR);
+        Promise.setFallbackErrorHandler(DIRECT_EXECUTOR, QUIET_ERROR_HANDLER);
+    }
+
+
+    private StressSupport() {
+    }
+
+    /**
+     * Makes sure the static setup has run.
+     */
+    static void init() {
+    }
+
+    /** A value with a plain field, so it shows whether it was published safely. */
+    static class Holder {
+        int x;
+
+        Holder(int x) {
+            this.x = x;
+        }
+    }
+
+}
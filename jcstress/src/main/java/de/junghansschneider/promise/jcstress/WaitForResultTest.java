@@ -0,0 +1,54 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jcstress;
+
+import de.junghansschneider.promise.Deferred;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * <code>waitForResult()</code> reads the result after waiting, outside of the lock. It relies on the waiter
+ * registration (under the lock) or the waiter release (a volatile write after settling) for its happens-before edge,
+ * so it must always see the fully published value.
+ *
+ * r1: the field of the value, -1 if waiting failed
+ */
+@JCStressTest
+@Description("waitForResult() racing with resolve")
+@Outcome(id = "42", expect = ACCEPTABLE, desc = "Fully published value")
+@Outcome(expect = FORBIDDEN, desc = "Stale or partially published value")
+@State
+public class WaitForResultTest {
+
+    static {
+        StressSupport.init();
+    }
+
+    private final Deferred<StressSupport.Holder> mDeferred = new Deferred<StressSupport.Holder>();
+
+    @Actor
+    public void resolver() {
+        mDeferred.resolve(new StressSupport.Holder(42));
+    }
+
+    @Actor
+    public void waiter(I_Result r) {
+        try {
+            StressSupport.Holder value = mDeferred.getPromise().waitForResult();
+            r.r1 = (value == null) ? -1 : value.x;
+        } catch (Exception exc) {
+            r.r1 = -1;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded channel for handing items from producers to consumers, where waiting for space or for an item is a promise
+ * instead of a blocked thread. So fast producers are throttled and the memory stays bounded.
+ *
+ * The channel is a lock-free ring buffer guarded by two counters working like semaphores: one for the free slots and
+ * one for the buffered items. A negative counter is the number of waiting senders or receivers, which are kept in
+ * lock-free FIFO queues. A freed slot or a sent item is handed over to the first waiter directly.
+ *
+ * Cancelling the promise of a waiting send or receive withdraws it. If a receive is cancelled just while an item is
+ * handed over to it, the item is put back to the end of the buffer.
+ */
+public class AsyncChannel<ItemType> {
+
+    private final AtomicReferenceArray<ItemType> mBuffer;
+    private final AtomicLong mPutIndex = new AtomicLong();
+    private final AtomicLong mTakeIndex = new AtomicLong();
+
+    /** The number of free slots - or, if negative, the number of waiting senders. */
+    private final AtomicInteger mSpaceState;
+    /** The number of buffered items - or, if negative, the number of waiting receivers. */
+    private final AtomicInteger mItemState = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<SendPromise<ItemType>> mSenders =
+            new ConcurrentLinkedQueue<SendPromise<ItemType>>();
+    private final ConcurrentLinkedQueue<ReceivePromise<ItemType>> mReceivers =
+            new ConcurrentLinkedQueue<ReceivePromise<ItemType>>();
+
+
+    public AsyncChannel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mBuffer = new AtomicReferenceArray<ItemType>(capacity);
+        mSpaceState = new AtomicInteger(capacity);
+    }
+
+    public int getCapacity() {
+        return mBuffer.length();
+    }
+
+    /**
+     * Returns the number of buffered items.
+     *
+     * @return the number of buffered items
+     */
+    public int size() {
+        return Math.max(0, mItemState.get());
+    }
+
+    /**
+     * Sends an item.
+     *
+     * @param item the item to send
+     * @return a promise resolving once the item was accepted by the channel
+     */
+    public Promise<Void> send(ItemType item) {
+        if (item == null) {
+            throw new NullPointerException("item is null");
+        }
+
+        if (mSpaceState.getAndDecrement() > 0) {
+            put(item);
+            releaseItem();
+            return Promise.resolvedPromise(null);
+        }
+
+        SendPromise<ItemType> waiter = new SendPromise<ItemType>(item);
+        mSenders.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Receives the next item.
+     *
+     * @return a promise resolving to the next item
+     */
+    public Promise<ItemType> receive() {
+        if (mItemState.getAndDecrement() > 0) {
+            ItemType item = take();
+            releaseSpace();
+            return Promise.resolvedPromise(item);
+        }
+
+        ReceivePromise<ItemType> waiter = new ReceivePromise<ItemType>();
+        mReceivers.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Publishes an item put into the buffer. If there are waiting receivers, the item is handed over to the first one.
+     */
+    private void releaseItem() {
+        while (mItemState.getAndIncrement() < 0) {
+            ReceivePromise<ItemType> waiter = pollWaiter(mReceivers);
+            ItemType item = take();
+            if (waiter.grant(item)) {
+                releaseSpace();
+                return;
+            }
+
+            // The receiver was cancelled. Its slot isn't released yet, so the item fits back in.
+            put(item);
+        }
+    }
+
+    /**
+     * Publishes a slot freed in the buffer. If there are waiting senders, the slot is handed over to the first one.
+     */
+    private void releaseSpace() {
+        while (mSpaceState.getAndIncrement() < 0) {
+            SendPromise<ItemType> waiter = pollWaiter(mSenders);
+            if (waiter.grant()) {
+                put(waiter.mItem);
+                releaseItem();
+                return;
+            }
+            // The sender was cancelled. Its place in the counter is given up now, try the next one.
+        }
+    }
+
+    private static <WaiterType> WaiterType pollWaiter(ConcurrentLinkedQueue<WaiterType> waiters) {
+        WaiterType waiter;
+        while ((waiter = waiters.poll()) == null) {
+            // The waiter already counted itself, but isn't queued yet
+            Thread.yield();
+        }
+        return waiter;
+    }
+
+    /**
+     * Puts an item into the buffer. The caller must own a free slot.
+     */
+    private void put(ItemType item) {
+        int slot = (int) (mPutIndex.getAndIncrement() % mBuffer.length());
+        while (! mBuffer.compareAndSet(slot, null, item)) {
+            // The receiver of the slot's previous item didn't take it out yet
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Takes an item out of the buffer. The caller must own a buffered item.
+     */
+    private ItemType take() {
+        int slot = (int) (mTakeIndex.getAndIncrement() % mBuffer.length());
+        ItemType item;
+        while ((item = mBuffer.getAndSet(slot, null)) == null) {
+            // The sender of the slot's item didn't put it in yet
+            Thread.yield();
+        }
+        return item;
+    }
+
+
+    private static class SendPromise<ItemType> extends Promise<Void> {
+
+        final ItemType mItem;
+
+        SendPromise(ItemType item) {
+            super(null, false);
+            mItem = item;
+        }
+
+        @Override
+        protected void execute(Resolver<Void> resolver) {
+        }
+
+        boolean grant() {
+            resolve((Void) null);
+            return getState() == State.RESOLVED;
+        }
+
+    }
+
+
+    private static class ReceivePromise<ItemType> extends Promise<ItemType> {
+
+        ReceivePromise() {
+            super(null, false);
+        }
+
+        @Override
+        protected void execute(Resolver<ItemType> resolver) {
+        }
+
+        boolean grant(ItemType item) {
+            resolve(item);
+            return getState() == State.RESOLVED;
+        }
+
+    }
+
+}
@@ -0,0 +1,224 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read/write lock handing out the lock as promises, so it can be held across asynchronous <code>then</code> chains
+ * without blocking any thread.
+ *
+ * Many readers may hold the lock at once, a writer holds it exclusively. Writers are preferred: once a writer waits,
+ * new readers queue up behind it. When a writer releases the lock, the next waiting writer gets it - the waiting
+ * readers get it together when no writer is left.
+ *
+ * The lock is not reentrant.
+ *
+ * A cancelled request leaves the wait queue right away. The queues are insertion-ordered sets, so this takes constant
+ * time even if many requests are cancelled.
+ */
+public class AsyncReadWriteLock {
+
+    private final LinkedHashSet<LockPromise> mWaitingReaders = new LinkedHashSet<LockPromise>();
+    private final LinkedHashSet<LockPromise> mWaitingWriters = new LinkedHashSet<LockPromise>();
+    private int mReaderCount;
+    private boolean mWriterActive;
+
+
+    /**
+     * Acquires the lock for reading.
+     *
+     * @return a promise resolving to the handle of the lock once it is acquired. Cancelling the promise before it
+     *         resolved withdraws the request.
+     */
+    public Promise<Handle> readLock() {
+        LockPromise promise = new LockPromise(new Handle(false));
+        boolean grantNow;
+        synchronized(this) {
+            grantNow = !mWriterActive && mWaitingWriters.isEmpty();
+            if (grantNow) {
+                mReaderCount++;
+            } else {
+                mWaitingReaders.add(promise);
+            }
+        }
+
+        return waitOrGrant(promise, grantNow);
+    }
+
+    /**
+     * Acquires the lock for writing.
+     *
+     * @return a promise resolving to the handle of the lock once it is acquired. Cancelling the promise before it
+     *         resolved withdraws the request.
+     */
+    public Promise<Handle> writeLock() {
+        LockPromise promise = new LockPromise(new Handle(true));
+        boolean grantNow;
+        synchronized(this) {
+            grantNow = !mWriterActive && mReaderCount == 0 && mWaitingWriters.isEmpty();
+            if (grantNow) {
+                mWriterActive = true;
+            } else {
+                mWaitingWriters.add(promise);
+            }
+        }
+
+        return waitOrGrant(promise, grantNow);
+    }
+
+    public synchronized int getReaderCount() {
+        return mReaderCount;
+    }
+
+    public synchronized boolean isWriteLocked() {
+        return mWriterActive;
+    }
+
+    public synchronized int getQueueLength() {
+        return mWaitingReaders.size() + mWaitingWriters.size();
+    }
+
+    private Promise<Handle> waitOrGrant(final LockPromise promise, boolean grantNow) {
+        if (grantNow) {
+            promise.grant();
+        } else {
+            promise.onCancel(new Runnable() {
+                @Override
+                public void run() {
+                    withdraw(promise);
+                }
+            });
+        }
+        return promise;
+    }
+
+    private void withdraw(LockPromise promise) {
+        List<LockPromise> grantedPromises = null;
+        synchronized(this) {
+            if (mWaitingWriters.remove(promise) && !mWriterActive && mWaitingWriters.isEmpty()) {
+                // The readers were only waiting for the withdrawn writer
+                grantedPromises = grantReaders();
+            } else {
+                mWaitingReaders.remove(promise);
+            }
+        }
+
+        grant(grantedPromises);
+    }
+
+    private void release(boolean write) {
+        List<LockPromise> grantedPromises = null;
+        synchronized(this) {
+            if (write) {
+                mWriterActive = false;
+            } else {
+                mReaderCount--;
+            }
+
+            if (mWriterActive || mReaderCount > 0) {
+                // Still locked
+            } else if (! mWaitingWriters.isEmpty()) {
+                mWriterActive = true;
+                Iterator<LockPromise> iter = mWaitingWriters.iterator();
+                grantedPromises = new ArrayList<LockPromise>(1);
+                grantedPromises.add(iter.next());
+                iter.remove();
+            } else {
+                grantedPromises = grantReaders();
+            }
+        }
+
+        grant(grantedPromises);
+    }
+
+    /**
+     * Moves all waiting readers to the active ones. The caller must hold the lock.
+     */
+    private List<LockPromise> grantReaders() {
+        if (mWaitingReaders.isEmpty()) {
+            return null;
+        }
+
+        List<LockPromise> grantedPromises = new ArrayList<LockPromise>(mWaitingReaders);
+        mReaderCount += mWaitingReaders.size();
+        mWaitingReaders.clear();
+        return grantedPromises;
+    }
+
+    /**
+     * Hands the lock over to granted promises. Must be called without holding the lock, since it runs handlers.
+     */
+    private void grant(List<LockPromise> grantedPromises) {
+        if (grantedPromises == null) {
+            return;
+        }
+
+        for (LockPromise promise : grantedPromises) {
+            if (! promise.grant()) {
+                // The promise was cancelled after it was granted the lock
+                release(promise.mHandle.mWrite);
+            }
+        }
+    }
+
+
+    /**
+     * A held lock. Must be released exactly once.
+     */
+    public class Handle {
+
+        private final boolean mWrite;
+        private final AtomicBoolean mReleased = new AtomicBoolean();
+
+        private Handle(boolean write) {
+            mWrite = write;
+        }
+
+        public boolean isWriteLock() {
+            return mWrite;
+        }
+
+        public void release() {
+            if (! mReleased.compareAndSet(false, true)) {
+                throw new IllegalStateException("Lock was already released");
+            }
+            AsyncReadWriteLock.this.release(mWrite);
+        }
+
+    }
+
+
+    private static class LockPromise extends Promise<Handle> {
+
+        final Handle mHandle;
+
+        LockPromise(Handle handle) {
+            super(null, false);
+            mHandle = handle;
+        }
+
+        @Override
+        protected void execute(Resolver<Handle> resolver) {
+        }
+
+        /**
+         * Hands the lock over to this promise.
+         *
+         * @return whether the lock was taken - false if this promise was cancelled before
+         */
+        boolean grant() {
+            resolve(mHandle);
+            return getState() == State.RESOLVED;
+        }
+
+    }
+
+}
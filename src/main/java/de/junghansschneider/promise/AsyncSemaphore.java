@@ -0,0 +1,204 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A semaphore handing out permits as promises, so limiting the concurrency of a resource (a bulkhead) doesn't block
+ * any thread while waiting for a permit.
+ *
+ * The state is a single counter: the number of free permits - or, if negative, the number of waiters. Waiters are
+ * kept in a lock-free FIFO queue. A cancelled waiter removes itself from the queue, so heavy cancellation doesn't let
+ * the queue grow. Its place in the counter is given up by the next release, which may be waiting for a queued waiter
+ * already - so no permit gets lost.
+ */
+public class AsyncSemaphore {
+
+    private final AtomicInteger mState;
+    private final ConcurrentLinkedQueue<PermitPromise> mWaiters = new ConcurrentLinkedQueue<PermitPromise>();
+    /** The number of cancelled waiters which removed themselves from the queue, but are still counted in the state */
+    private final AtomicInteger mWithdrawnCount = new AtomicInteger();
+
+
+    public AsyncSemaphore(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits must not be negative");
+        }
+        mState = new AtomicInteger(permits);
+    }
+
+    /**
+     * Acquires a permit. The permit must be given back by calling {@link #release()}. Cancelling the returned promise
+     * before it resolved withdraws the request.
+     *
+     * @return a promise resolving once the permit was acquired
+     */
+    public Promise<Void> acquire() {
+        if (mState.getAndDecrement() > 0) {
+            return Promise.resolvedPromise(null);
+        }
+
+        final PermitPromise waiter = new PermitPromise();
+        mWaiters.add(waiter);
+        waiter.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                // If a release polled the waiter meanwhile, it skips it
+                if (mWaiters.remove(waiter)) {
+                    mWithdrawnCount.incrementAndGet();
+                }
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * Acquires a permit if one is free right now.
+     *
+     * @return whether a permit was acquired
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int state = mState.get();
+            if (state <= 0) {
+                return false;
+            }
+            if (mState.compareAndSet(state, state - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a permit. If there are waiters, the permit is handed over to the first one.
+     */
+    public void release() {
+        while (mState.getAndIncrement() < 0) {
+            PermitPromise waiter;
+            while ((waiter = mWaiters.poll()) == null) {
+                if (takeWithdrawn()) {
+                    break;
+                }
+                // The waiter already counted itself, but isn't queued yet
+                Thread.yield();
+            }
+            if (waiter != null && waiter.grant()) {
+                return;
+            }
+            // The waiter was cancelled. Its place in the counter is given up now, try the next one.
+        }
+    }
+
+    private boolean takeWithdrawn() {
+        while (true) {
+            int withdrawnCount = mWithdrawnCount.get();
+            if (withdrawnCount == 0) {
+                return false;
+            }
+            if (mWithdrawnCount.compareAndSet(withdrawnCount, withdrawnCount - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Calls a factory while holding a permit. The permit is released when the factory's promise settles - or if the
+     * returned promise is cancelled before the factory was called.
+     *
+     * @param factory the factory creating the promise to run with a permit
+     * @return a promise settled like the factory's promise
+     */
+    public <ValueType> Promise<ValueType> withPermit(final PromiseFactory<ValueType> factory) {
+        if (factory == null) {
+            throw new NullPointerException("factory is null");
+        }
+
+        // Whoever claims the permit first is responsible for it: the handler calling the factory or the cancel handler
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final Runnable releaseHandler = new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        };
+
+        final Promise<Void> permit = acquire();
+        Promise<ValueType> promise = permit.then(new PromiseThenHandler<Void, ValueType>() {
+            @Override
+            public Promise<ValueType> onValue(Void value) throws Throwable {
+                if (! claimed.compareAndSet(false, true)) {
+                    // Cancelled meanwhile. The cancel handler released the permit.
+                    return Promise.resolvedPromise(null);
+                }
+
+                Promise<ValueType> factoryPromise;
+                try {
+                    factoryPromise = factory.create();
+                } catch (Throwable thr) {
+                    release();
+                    throw thr;
+                }
+                factoryPromise.always(releaseHandler);
+                return factoryPromise;
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                if (claimed.compareAndSet(false, true) && ! permit.cancel()) {
+                    // The permit was already granted
+                    release();
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Returns the number of free permits.
+     *
+     * @return the number of free permits
+     */
+    public int getAvailablePermits() {
+        return Math.max(0, mState.get());
+    }
+
+    /**
+     * Returns the number of waiting acquires.
+     *
+     * @return the number of waiting acquires
+     */
+    public int getQueueLength() {
+        return Math.max(0, -mState.get() - mWithdrawnCount.get());
+    }
+
+
+    private static class PermitPromise extends Promise<Void> {
+
+        PermitPromise() {
+            super(null, false);
+        }
+
+        @Override
+        protected void execute(Resolver<Void> resolver) {
+        }
+
+        /**
+         * Hands the permit over to this waiter.
+         *
+         * @return whether the permit was taken - false if this waiter was cancelled before
+         */
+        boolean grant() {
+            resolve((Void) null);
+            return getState() == State.RESOLVED;
+        }
+
+    }
+
+}
@@ -0,0 +1,29 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+/**
+ * The reject cause of calls refused by an open {@link PromiseCircuitBreaker}.
+ */
+public class CircuitBreakerOpenException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message the message
+     * @param writableStackTrace whether to fill in the stack trace. A breaker shares one exception for all refused
+     *        calls, so their stack traces would be misleading anyway.
+     */
+    CircuitBreakerOpenException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
+}
@@ -10,23 +10,30 @@ import java.util.concurrent.Executor;
 
 public class Deferred<ValueType> implements Promise.Resolver<ValueType> {
 
-    private Promise.Resolver<ValueType> mResolver;
     private Promise<ValueType> mPromise;
 
 
     public Deferred() {
-        this(null);
+        this((Executor) null);
     }
 
     public Deferred(Executor executor) {
         mPromise = new Promise<ValueType>(executor) {
             protected void execute(Promise.Resolver<ValueType> resolver) {
-                mResolver = resolver;
                 Deferred.this.execute();
             }
         };
     }
 
+    /**
+     * Creates a deferred for a promise which is settled by this deferred only.
+     *
+     * @param promise the promise
+     */
+    protected Deferred(Promise<ValueType> promise) {
+        mPromise = promise;
+    }
+
     protected void execute() {
     }
 
@@ -35,19 +42,35 @@ public class Deferred<ValueType> implements Promise.Resolver<ValueType> {
     }
 
     public void resolve(ValueType value) {
-        mResolver.resolve(value);
+        mPromise.resolve(value);
     }
 
     public void resolve(Promise<ValueType> valuePromise) {
-        mResolver.resolve(valuePromise);
+        mPromise.resolve(valuePromise);
     }
 
     public void reject(Throwable thr) {
-        mResolver.reject(thr);
+        mPromise.reject(thr);
     }
 
     public boolean isCancelled() {
         return mPromise.isCancelled();
     }
 
+    public void onCancel(Runnable handler) {
+        mPromise.onCancel(handler);
+    }
+
+    public void setInterruptOnCancel(boolean interruptOnCancel) {
+        mPromise.setInterruptOnCancel(interruptOnCancel);
+    }
+
+    public void notifyProgress(Object progress) {
+        mPromise.notifyProgress(progress);
+    }
+
+    public long getRemainingNanos() {
+        return mPromise.getRemainingNanos();
+    }
+
 }
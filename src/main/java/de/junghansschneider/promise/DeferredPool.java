@@ -0,0 +1,105 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link RecyclableDeferred}s for producers creating deferreds at a high rate.
+ *
+ * The pool is shared by all threads, so deferreds may be acquired on one thread (e.g. an I/O thread) and released on
+ * another (e.g. a worker). It's split into stripes to keep contention low: A thread releases into and acquires from
+ * its own stripe first and falls back to the other stripes. Deferreds released while the pool is full are left to the
+ * garbage collector.
+ */
+public class DeferredPool<ValueType> {
+
+    private final int mMaxPooledCount;
+    private final ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>>[] mStripes;
+    private final AtomicInteger mPooledCount = new AtomicInteger();
+
+
+    public DeferredPool() {
+        this(256);
+    }
+
+    /**
+     * @param maxPooledCount the maximum number of idle deferreds to keep
+     */
+    public DeferredPool(int maxPooledCount) {
+        if (maxPooledCount < 0) {
+            throw new IllegalArgumentException("maxPooledCount must not be negative");
+        }
+        mMaxPooledCount = maxPooledCount;
+
+        // One stripe per processor, rounded up to a power of two
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+        mStripes = createStripes(stripeCount);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <ValueType> ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>>[] createStripes(int count) {
+        ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>>[] stripes = new ArrayDeque[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>>();
+        }
+        return stripes;
+    }
+
+    /**
+     * Returns the number of idle deferreds in the pool.
+     *
+     * @return the number of idle deferreds
+     */
+    public int getPooledCount() {
+        return mPooledCount.get();
+    }
+
+    /**
+     * Returns a pending deferred. Call {@link RecyclableDeferred#release()} when its promise is settled and nobody
+     * holds a reference to the deferred anymore.
+     *
+     * @return a pending deferred
+     */
+    public RecyclableDeferred<ValueType> acquire() {
+        RecyclableDeferred.RecyclablePromise<ValueType> promise = null;
+        if (mPooledCount.get() > 0) {
+            int ownStripe = getOwnStripe();
+            for (int i = 0; i < mStripes.length && promise == null; i++) {
+                ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>> stripe
+                        = mStripes[(ownStripe + i) & (mStripes.length - 1)];
+                synchronized(stripe) {
+                    promise = stripe.poll();
+                }
+            }
+        }
+
+        if (promise == null) {
+            promise = new RecyclableDeferred.RecyclablePromise<ValueType>(this);
+        } else {
+            mPooledCount.decrementAndGet();
+        }
+        return new RecyclableDeferred<ValueType>(promise);
+    }
+
+    void release(RecyclableDeferred.RecyclablePromise<ValueType> promise) {
+        if (mPooledCount.incrementAndGet() > mMaxPooledCount) {
+            mPooledCount.decrementAndGet();
+            return;
+        }
+
+        ArrayDeque<RecyclableDeferred.RecyclablePromise<ValueType>> stripe = mStripes[getOwnStripe()];
+        synchronized(stripe) {
+            stripe.push(promise);
+        }
+    }
+
+    private int getOwnStripe() {
+        return (int) Thread.currentThread().getId() & (mStripes.length - 1);
+    }
+
+}
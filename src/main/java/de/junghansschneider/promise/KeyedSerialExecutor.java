@@ -0,0 +1,158 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks having the same key one after another (in submission order), while tasks having different keys run
+ * concurrently on a shared executor. Each key gets a lightweight strand (a lock-free task queue) which only exists as
+ * long as the key has pending tasks, so there may be millions of keys.
+ *
+ * Use {@link #forKey(Object)} to get an executor for promises or handlers which should be serialized by key.
+ */
+public class KeyedSerialExecutor {
+
+    /** The number of tasks a strand runs before it gives its pool thread to other strands. */
+    private static final int BATCH_SIZE = 16;
+
+    /** The task count of a strand which was removed from the strand map. Such a strand must not be used anymore. */
+    private static final int DEAD = -1;
+
+    private final Executor mExecutor;
+    private final ConcurrentMap<Object, Strand> mStrands = new ConcurrentHashMap<Object, Strand>();
+
+
+    public KeyedSerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns an executor which runs its tasks serialized with all other tasks of the same key.
+     *
+     * @param key the key
+     * @return the executor for the key
+     */
+    public Executor forKey(final Object key) {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                KeyedSerialExecutor.this.execute(key, command);
+            }
+        };
+    }
+
+    public void execute(Object key, Runnable command) {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        if (command == null) {
+            throw new NullPointerException("command is null");
+        }
+
+        while (true) {
+            Strand strand = mStrands.get(key);
+            if (strand == null) {
+                Strand newStrand = new Strand(key);
+                strand = mStrands.putIfAbsent(key, newStrand);
+                if (strand == null) {
+                    strand = newStrand;
+                }
+            }
+
+            if (strand.add(command)) {
+                return;
+            }
+
+            // The strand went idle and was removed meanwhile -> Try again with a fresh one
+            mStrands.remove(key, strand);
+        }
+    }
+
+    /**
+     * Returns the number of keys having pending tasks.
+     *
+     * @return the number of active keys
+     */
+    public int getActiveKeyCount() {
+        return mStrands.size();
+    }
+
+
+    private class Strand implements Runnable {
+
+        private final Object mKey;
+        private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger mTaskCount = new AtomicInteger();
+
+        Strand(Object key) {
+            mKey = key;
+        }
+
+        /**
+         * Adds a task.
+         *
+         * @return whether the task was added - false if this strand is dead
+         */
+        boolean add(Runnable command) {
+            int taskCount;
+            do {
+                taskCount = mTaskCount.get();
+                if (taskCount == DEAD) {
+                    return false;
+                }
+            } while (! mTaskCount.compareAndSet(taskCount, taskCount + 1));
+
+            mTasks.offer(command);
+
+            if (taskCount == 0) {
+                mExecutor.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task;
+                while ((task = mTasks.poll()) == null) {
+                    // The task was counted, but its producer didn't offer it yet
+                    Thread.yield();
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable thr) {
+                    Promise.onFallbackError("Running task of key " + mKey + " failed", thr);
+                }
+
+                if (mTaskCount.decrementAndGet() == 0) {
+                    // Remove idle strand. If a producer comes in between, it has already scheduled us again.
+                    if (mTaskCount.compareAndSet(0, DEAD)) {
+                        mStrands.remove(mKey, this);
+                    }
+                    return;
+                }
+            }
+
+            mExecutor.execute(this);
+        }
+
+    }
+
+}
@@ -7,18 +7,30 @@
 package de.junghansschneider.promise;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *
  * Missing compared to Q promises:
  * - fin
  * - allSettled
- * - progress
  */
 public abstract class Promise<ValueType> {
 
@@ -27,35 +39,250 @@ public abstract class Promise<ValueType> {
         public void resolve(Promise<ValueType> value);
         public void reject(Throwable thr);
         public boolean isCancelled();
+
+        /**
+         * Registers a handler which is called as soon as the promise is cancelled. The handler is called synchronously
+         * by the cancelling thread, so it should only do quick things like closing a socket.
+         * If the promise is already cancelled, the handler is called immediately.
+         *
+         * @param handler the handler to call on cancel
+         */
+        public void onCancel(Runnable handler);
+
+        /**
+         * Sets whether the thread running <code>execute(Resolver)</code> should be interrupted if the promise is
+         * cancelled while <code>execute(Resolver)</code> is still running.
+         *
+         * @param interruptOnCancel whether to interrupt the executing thread on cancel
+         */
+        public void setInterruptOnCancel(boolean interruptOnCancel);
+
+        /**
+         * Notifies the progress handlers of the promise. Progress notifications are conflated: If a handler's executor
+         * didn't call the handler for the previous progress yet, the handler will only get the latest progress.
+         *
+         * @param progress the progress
+         */
+        public void notifyProgress(Object progress);
+
+        /**
+         * Returns the time left until the deadline of the promise (see {@link Promise#setDeadline(long, TimeUnit)}).
+         *
+         * @return the remaining time in nanoseconds (negative if the deadline has passed) - or Long.MAX_VALUE if the
+         *         promise has no deadline
+         */
+        public long getRemainingNanos();
     }
 
-    private static class Subscription<HandlerType> {
-        Subscription(Executor executor, HandlerType handler) {
+    /**
+     * A handler registration. Subscriptions form a linked list, which is built in reverse order.
+     */
+    private static class Subscription {
+        static final int VALUE = 1;
+        static final int ERROR = 2;
+        static final int CANCEL = 4;
+        static final int ALWAYS = VALUE | ERROR;
+
+        final Executor executor;
+        final Object handler;
+        final int kinds;
+        Subscription next;
+
+        Subscription(Executor executor, Object handler, int kinds, Subscription next) {
             if (handler == null) {
                 throw new NullPointerException("handler is null");
             }
 
             this.executor = executor;
             this.handler = handler;
+            this.kinds = kinds;
+            this.next = next;
+        }
+    }
+
+    private static class ProgressSubscription implements Runnable {
+        private static final Object NO_PROGRESS = new Object();
+
+        final Executor executor;
+        final PromiseProgressHandler handler;
+        final AtomicReference<Object> pendingProgress = new AtomicReference<Object>(NO_PROGRESS);
+
+        ProgressSubscription(Executor executor, PromiseProgressHandler handler) {
+            if (handler == null) {
+                throw new NullPointerException("handler is null");
+            }
+
+            this.executor = (executor == null) ? getDefaultExecutor() : executor;
+            this.handler = handler;
+        }
+
+        void notifyProgress(Object progress) {
+            // Only schedule a task if there is none pending. A pending task will deliver the latest progress.
+            if (pendingProgress.getAndSet(progress) == NO_PROGRESS) {
+                executor.execute(this);
+            }
         }
 
-        Executor executor;
-        HandlerType handler;
+        public void run() {
+            Object progress = pendingProgress.getAndSet(NO_PROGRESS);
+            try {
+                handler.onProgress(progress);
+            } catch (Throwable thr) {
+                onFallbackError("Calling onProgress handler failed", thr);
+            }
+        }
+    }
+
+    /**
+     * Holds the rarely used state of a promise, so promises not using it don't pay for it.
+     */
+    private static class Extras {
+        Waiter waiters;
+        ProgressSubscription[] progressHandlers;
+        boolean interruptOnCancel;
+        Thread interruptThread;
+        boolean interruptedByCancel;
+        ForkJoinTask<?> forkJoinTask;
+        ForkJoinPool forkJoinPool;
+        boolean lazy;
+        Executor lazyExecutor;
+        int priority;
+        boolean hasDeadline;
+        long deadline;
+        PromiseTraceRecorder.Stage traceStage;
+    }
+
+    /** The result of a rejected promise. */
+    private static class Rejection {
+        final Throwable cause;
+
+        Rejection(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    /** The result of a promise resolved with a value which is a State itself. */
+    private static class BoxedValue {
+        final Object value;
+
+        BoxedValue(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static class Waiter {
+        final Thread thread = Thread.currentThread();
+        Waiter next;
+        volatile boolean released;
+
+        void release() {
+            released = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * A waiter which is registered at several promises and shares one counter with its siblings, so the waiting
+     * thread is only woken when enough of the promises are settled.
+     */
+    private static class BulkWaiter extends Waiter {
+        final AtomicInteger remaining;
+
+        BulkWaiter(AtomicInteger remaining) {
+            this.remaining = remaining;
+        }
+
+        @Override
+        void release() {
+            released = true;
+            if (remaining.decrementAndGet() == 0) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Parks the current thread until it is released, the timeout elapsed or - if interruptible - it is interrupted.
+     * This is a ManagedBlocker, so a ForkJoinPool can compensate for a blocked worker thread.
+     */
+    private static abstract class ParkingBlocker implements ForkJoinPool.ManagedBlocker {
+        private final boolean mTimed;
+        private final long mDeadline;
+        private final boolean mInterruptible;
+        boolean timedOut;
+        boolean interrupted;
+
+        ParkingBlocker(boolean timed, long nanos, boolean interruptible) {
+            mTimed = timed;
+            mDeadline = timed ? System.nanoTime() + nanos : 0;
+            mInterruptible = interruptible;
+        }
+
+        void awaitRelease() throws InterruptedException {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (isReleasable()) {
+                return true;
+            }
+
+            if (mTimed) {
+                long nanosLeft = mDeadline - System.nanoTime();
+                if (nanosLeft <= 0) {
+                    timedOut = true;
+                    return true;
+                }
+                LockSupport.parkNanos(this, nanosLeft);
+            } else {
+                LockSupport.park(this);
+            }
+
+            if (Thread.interrupted()) {
+                if (mInterruptible) {
+                    throw new InterruptedException();
+                }
+                interrupted = true;
+            }
+            return isReleasable();
+        }
     }
 
 
     protected static enum State { QUEUED, EXECUTING, PENDING, RESOLVED, REJECTED};
 
+    /**
+     * When a promise starts executing: EAGER right away when it's created, LAZY on the first subscription (onValue,
+     * onError, then, always or being passed to all) or when a thread starts waiting for it. A lazy promise which is
+     * never subscribed to never executes.
+     */
+    public static enum ExecutionMode { EAGER, LAZY };
+
     protected static Executor mDefaultExecutor = new DefaultExecutor();
-    protected static Subscription<PromiseErrorHandler> mFallbackErrorHandler;
+    protected static Subscription mFallbackErrorHandler;
+    protected static ScheduledExecutorService mDefaultScheduler;
+    private static volatile PromiseTraceRecorder mTraceRecorder;
+    private static volatile PromiseEventListener mEventListener;
 
 
-    protected State mState = State.QUEUED;
-    protected ValueType mValue;
-    protected Throwable mRejectCause;
-    protected List<WeakReference<Promise<?>>> mAncestorPromises;
-    protected List<Subscription<PromiseValueHandler<ValueType>>> mValueHandlers;
-    protected List<Subscription<PromiseErrorHandler>> mErrorHandlers;
+    /**
+     * The state and the result in one field: A State while the promise is unsettled, a Rejection if it was rejected,
+     * otherwise the value (a BoxedValue if the value is a State).
+     */
+    private Object mResult = State.QUEUED;
+    /** null, a single then or always handler using the default executor or the head of a Subscription list */
+    private Object mHandlers;
+    /** null, a single WeakReference to an ancestor or a list of them */
+    private Object mAncestors;
+    private int mChildCount;
+    private Extras mExtras;
 
 
     public Promise() {
@@ -66,7 +293,19 @@ public abstract class Promise<ValueType> {
         this(executor, true);
     }
 
+    public Promise(Executor executor, ExecutionMode mode) {
+        traceCreated();
+        if (mode == ExecutionMode.LAZY) {
+            Extras extras = getExtras();
+            extras.lazy = true;
+            extras.lazyExecutor = executor;
+        } else {
+            execute(executor);
+        }
+    }
+
     protected Promise(Executor executor, boolean executeNow) {
+        traceCreated();
         if (executeNow) {
             execute(executor);
         }
@@ -85,6 +324,68 @@ public abstract class Promise<ValueType> {
         return mDefaultExecutor;
     }
 
+    /**
+     * Sets the scheduler to use for timed work (like rate limiting) if no scheduler was specified.
+     *
+     * @param defaultScheduler the default scheduler
+     */
+    public static void setDefaultScheduler(ScheduledExecutorService defaultScheduler) {
+        synchronized(Promise.class) {
+            mDefaultScheduler = defaultScheduler;
+        }
+    }
+
+    /**
+     * Returns the default scheduler. If none was set, a scheduler having one daemon thread is created. The scheduler
+     * should only be used for short timer tasks, real work should be passed to an executor.
+     *
+     * @return the default scheduler
+     */
+    public static ScheduledExecutorService getDefaultScheduler() {
+        synchronized(Promise.class) {
+            if (mDefaultScheduler == null) {
+                ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "promise-scheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                scheduler.setRemoveOnCancelPolicy(true);
+                mDefaultScheduler = scheduler;
+            }
+            return mDefaultScheduler;
+        }
+    }
+
+    /**
+     * Sets the recorder to record the lifecycle of all promises created from now on - or null to stop recording.
+     *
+     * @param traceRecorder the recorder
+     * @see PromiseTraceRecorder
+     */
+    public static void setTraceRecorder(PromiseTraceRecorder traceRecorder) {
+        mTraceRecorder = traceRecorder;
+    }
+
+    public static PromiseTraceRecorder getTraceRecorder() {
+        return mTraceRecorder;
+    }
+
+    /**
+     * Sets the listener to notify about the lifecycle of all promises - or null to remove it.
+     *
+     * @param eventListener the listener
+     */
+    public static void setEventListener(PromiseEventListener eventListener) {
+        mEventListener = eventListener;
+    }
+
+    public static PromiseEventListener getEventListener() {
+        return mEventListener;
+    }
+
     public static void setFallbackErrorHandler(PromiseErrorHandler fallbackErrorHandler) {
         setFallbackErrorHandler(null, fallbackErrorHandler);
     }
@@ -93,18 +394,149 @@ public abstract class Promise<ValueType> {
         if (fallbackErrorHandler == null) {
             mFallbackErrorHandler = null;
         } else {
-            mFallbackErrorHandler = new Subscription<PromiseErrorHandler>(executor, fallbackErrorHandler);
+            mFallbackErrorHandler = new Subscription(executor, fallbackErrorHandler, Subscription.ERROR, null);
         }
     }
 
     protected abstract void execute(Resolver<ValueType> resolver) throws Exception;
 
     public boolean isFinished() {
-        return mState == State.RESOLVED || mState == State.REJECTED;
+        return ! (mResult instanceof State);
+    }
+
+    protected State getState() {
+        Object result = mResult;
+        if (result instanceof State) {
+            return (State) result;
+        } else if (result instanceof Rejection) {
+            return State.REJECTED;
+        } else {
+            return State.RESOLVED;
+        }
+    }
+
+    /**
+     * Returns the priority of this promise. See {@link #setPriority(int)}.
+     *
+     * @return the priority
+     */
+    public int getPriority() {
+        synchronized(this) {
+            return (mExtras == null) ? 0 : mExtras.priority;
+        }
+    }
+
+    /**
+     * Sets the priority of this promise. A {@link PromisePriorityExecutor} runs the promise's work (executing it and
+     * calling its handlers) by this priority. Children created by <code>then</code> inherit the priority.
+     *
+     * Eager promises start executing when they are created, so their own execution can't get a priority. Use
+     * {@link ExecutionMode#LAZY} for that and set the priority before subscribing.
+     *
+     * @param priority the priority. Higher priorities are run first, the default is 0.
+     * @return this promise
+     */
+    public Promise<ValueType> setPriority(int priority) {
+        synchronized(this) {
+            if (priority != 0 || mExtras != null) {
+                getExtras().priority = priority;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets a deadline for this promise. Children created by <code>then</code> or <code>all</code> inherit the
+     * deadline. A stage whose deadline has passed before its work is started (executing the promise or calling the
+     * then handler) is rejected with a TimeoutException without doing the work. While executing, the remaining time
+     * can be checked with {@link Resolver#getRemainingNanos()}.
+     *
+     * A deadline can only be moved closer: if the promise already has an earlier deadline, it is kept.
+     *
+     * @param timeout the time from now on until the deadline
+     * @param unit the unit of the timeout
+     * @return this promise
+     */
+    public Promise<ValueType> setDeadline(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized(this) {
+            setDeadlineLocked(deadline);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the time left until the deadline of this promise.
+     *
+     * @return the remaining time in nanoseconds (negative if the deadline has passed) - or Long.MAX_VALUE if this
+     *         promise has no deadline
+     */
+    public long getRemainingNanos() {
+        synchronized(this) {
+            return getRemainingNanosLocked();
+        }
+    }
+
+    private void setDeadlineLocked(long deadline) {
+        Extras extras = getExtras();
+        if (! extras.hasDeadline || deadline - extras.deadline < 0) {
+            extras.hasDeadline = true;
+            extras.deadline = deadline;
+        }
+    }
+
+    private long getRemainingNanosLocked() {
+        if (mExtras == null || ! mExtras.hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return mExtras.deadline - System.nanoTime();
+    }
+
+    private static TimeoutException createDeadlineException() {
+        return new TimeoutException("Deadline of promise has passed");
+    }
+
+    /**
+     * Takes over the inheritable settings (priority and deadline) of a parent promise.
+     */
+    protected void inheritFrom(Promise<?> parent) {
+        inheritFrom(parent, true);
+    }
+
+    /**
+     * Takes over the inheritable settings of a parent promise.
+     *
+     * @param inheritPriority whether to take over the priority (a promise having several parents takes the highest
+     *        priority of them instead)
+     */
+    void inheritFrom(Promise<?> parent, boolean inheritPriority) {
+        int priority;
+        boolean hasDeadline;
+        long deadline;
+        synchronized(parent) {
+            Extras parentExtras = parent.mExtras;
+            if (parentExtras == null) {
+                return;
+            }
+            priority = inheritPriority ? parentExtras.priority : 0;
+            hasDeadline = parentExtras.hasDeadline;
+            deadline = parentExtras.deadline;
+        }
+
+        if (priority != 0 || hasDeadline) {
+            synchronized(this) {
+                if (priority != 0) {
+                    getExtras().priority = priority;
+                }
+                if (hasDeadline) {
+                    setDeadlineLocked(deadline);
+                }
+            }
+        }
     }
 
     public boolean isCancelled() {
-        return isCancelled(mRejectCause);
+        return isCancelled(getRejectCause());
     }
 
     public static boolean isCancelled(Throwable thr) {
@@ -116,18 +548,7 @@ public abstract class Promise<ValueType> {
     }
 
     public Promise<ValueType> onValue(Executor executor, PromiseValueHandler<ValueType> handler) {
-        synchronized(this) {
-            if (isFinished()) {
-                if (mState == State.RESOLVED) {
-                    fireValue(executor, handler);
-                }
-            } else {
-                if (mValueHandlers == null) {
-                    mValueHandlers = new ArrayList<Subscription<PromiseValueHandler<ValueType>>>(1);
-                }
-                mValueHandlers.add(new Subscription<PromiseValueHandler<ValueType>>(executor, handler));
-            }
-        }
+        subscribe(executor, handler, Subscription.VALUE);
         return this;
     }
 
@@ -136,13 +557,10 @@ public abstract class Promise<ValueType> {
     }
 
     public <ChildValueType> Promise<ChildValueType> then(Executor executor, PromiseThenHandler<ValueType, ChildValueType> handler) {
-        ThenWrapperHandler<ValueType, ChildValueType> wrapperHandler = new ThenWrapperHandler<ValueType, ChildValueType>(handler);
-        Promise<ChildValueType> chainedPromise = wrapperHandler.getChildPromise();
+        ThenPromise<ValueType, ChildValueType> chainedPromise = new ThenPromise<ValueType, ChildValueType>(handler);
         chainedPromise.addAncestor(this);
-
-        onValue(executor, wrapperHandler);
-        onError(executor, wrapperHandler);
-
+        chainedPromise.inheritFrom(this);
+        subscribe(executor, chainedPromise, Subscription.ALWAYS);
         return chainedPromise;
     }
 
@@ -151,44 +569,336 @@ public abstract class Promise<ValueType> {
     }
 
     public Promise<ValueType> onError(Executor executor, PromiseErrorHandler handler) {
+        subscribe(executor, handler, Subscription.ERROR);
+        return this;
+    }
+
+    public Promise<ValueType> onProgress(PromiseProgressHandler handler) {
+        return this.onProgress(null, handler);
+    }
+
+    /**
+     * Adds a handler which is notified about progress while the promise is not settled. Progress notifications are
+     * conflated: If the executor didn't call the handler for the previous progress yet, only the latest progress is
+     * delivered. So there is at most one pending task per handler.
+     *
+     * @param executor the executor to call the handler in
+     * @param handler the handler
+     * @return this promise
+     */
+    public Promise<ValueType> onProgress(Executor executor, PromiseProgressHandler handler) {
+        ProgressSubscription subscription = new ProgressSubscription(executor, handler);
         synchronized(this) {
-            if (isFinished()) {
-                if (mState == State.REJECTED) {
-                    fireError(executor, handler);
-                }
-            } else {
-                if (mErrorHandlers == null) {
-                    mErrorHandlers = new ArrayList<Subscription<PromiseErrorHandler>>(1);
+            if (! isFinished()) {
+                // Copy on write, so notifyProgress can iterate without holding the lock
+                Extras extras = getExtras();
+                ProgressSubscription[] handlers;
+                if (extras.progressHandlers == null) {
+                    handlers = new ProgressSubscription[1];
+                } else {
+                    handlers = new ProgressSubscription[extras.progressHandlers.length + 1];
+                    System.arraycopy(extras.progressHandlers, 0, handlers, 0, extras.progressHandlers.length);
                 }
-                mErrorHandlers.add(new Subscription<PromiseErrorHandler>(executor, handler));
+                handlers[handlers.length - 1] = subscription;
+                extras.progressHandlers = handlers;
             }
         }
         return this;
     }
 
+    protected void notifyProgress(Object progress) {
+        ProgressSubscription[] handlers = null;
+        Object forwardTargets;
+        synchronized(this) {
+            if (mExtras != null) {
+                handlers = mExtras.progressHandlers;
+            }
+            forwardTargets = getForwardTargets();
+        }
+
+        if (handlers != null) {
+            for (ProgressSubscription subscription : handlers) {
+                subscription.notifyProgress(progress);
+            }
+        }
+
+        // Promises resolved with this promise get its progress as well
+        if (forwardTargets instanceof Promise) {
+            ((Promise<?>) forwardTargets).notifyProgress(progress);
+        } else if (forwardTargets != null) {
+            for (Object target : (List<?>) forwardTargets) {
+                ((Promise<?>) target).notifyProgress(progress);
+            }
+        }
+    }
+
+    /**
+     * Returns the promises which were resolved with this promise. They are found by their ForwardHandlers, so
+     * forwarding progress costs nothing until progress is notified. The caller must hold the lock.
+     *
+     * @return null, a single target promise or a list of them
+     */
+    @SuppressWarnings("unchecked")
+    private Object getForwardTargets() {
+        if (mHandlers instanceof ForwardHandler) {
+            return ((ForwardHandler<?>) mHandlers).mTarget;
+        } else if (! (mHandlers instanceof Subscription)) {
+            return null;
+        }
+
+        Object targets = null;
+        for (Subscription subscription = (Subscription) mHandlers; subscription != null;
+                subscription = subscription.next)
+        {
+            if (subscription.handler instanceof ForwardHandler) {
+                Promise<?> target = ((ForwardHandler<?>) subscription.handler).mTarget;
+                if (targets == null) {
+                    targets = target;
+                } else {
+                    if (targets instanceof Promise) {
+                        List<Object> list = new ArrayList<Object>();
+                        list.add(targets);
+                        targets = list;
+                    }
+                    ((List<Object>) targets).add(target);
+                }
+            }
+        }
+        return targets;
+    }
+
     public Promise<ValueType> always(Runnable handler) {
         return this.always(null, handler);
     }
 
     public Promise<ValueType> always(Executor executor, Runnable handler) {
-        AlwaysWrapper wrapperHandler = new AlwaysWrapper(handler);
-        onValue(executor, wrapperHandler);
-        onError(executor, wrapperHandler);
+        subscribe(executor, new AlwaysWrapper<ValueType>(handler), Subscription.ALWAYS);
         return this;
     }
 
+    /**
+     * Registers a handler - or calls it right away if this promise is already settled.
+     *
+     * @param kinds the Subscription kinds telling which events the handler gets
+     */
+    @SuppressWarnings("unchecked")
+    private void subscribe(Executor executor, Object handler, int kinds) {
+        if (handler == null) {
+            throw new NullPointerException("handler is null");
+        }
+
+        Extras lazyExtras;
+        synchronized(this) {
+            if (! isFinished()) {
+                if (mHandlers == null && executor == null && kinds == Subscription.ALWAYS) {
+                    // Most promises have exactly one then or always handler -> Store it without Subscription
+                    mHandlers = handler;
+                } else {
+                    mHandlers = new Subscription(executor, handler, kinds, getSubscriptions());
+                }
+                lazyExtras = takeLazy();
+                if (lazyExtras == null) {
+                    return;
+                }
+            } else {
+                lazyExtras = null;
+            }
+        }
+
+        if (lazyExtras != null) {
+            execute(lazyExtras.lazyExecutor);
+            return;
+        }
+
+        State state = getState();
+        if (state == State.RESOLVED && (kinds & Subscription.VALUE) != 0) {
+            fireValue(executor, (PromiseValueHandler<ValueType>) handler);
+        } else if (state == State.REJECTED && (kinds & Subscription.ERROR) != 0) {
+            fireError(executor, (PromiseErrorHandler) handler);
+        }
+    }
+
+    /**
+     * Clears the lazy mark of a lazy promise which isn't started yet. The caller must hold the lock.
+     *
+     * @return the extras holding the executor to start the promise with - or null if the promise isn't lazy or was
+     *         already started
+     */
+    private Extras takeLazy() {
+        if (mExtras == null || ! mExtras.lazy) {
+            return null;
+        }
+        mExtras.lazy = false;
+        return mExtras;
+    }
+
+    /**
+     * Returns the handler list as Subscriptions, turning a single inline handler into a Subscription.
+     * The caller must hold the lock.
+     */
+    private Subscription getSubscriptions() {
+        if (mHandlers == null || mHandlers instanceof Subscription) {
+            return (Subscription) mHandlers;
+        } else {
+            return new Subscription(null, mHandlers, Subscription.ALWAYS, null);
+        }
+    }
+
+    private void traceCreated() {
+        PromiseTraceRecorder traceRecorder = mTraceRecorder;
+        if (traceRecorder != null) {
+            // No lock needed: Nobody else knows this promise yet
+            getExtras().traceStage = traceRecorder.createStage(this);
+        }
+    }
+
+    /**
+     * Returns the recorded lifecycle of this promise - or null if it isn't recorded.
+     */
+    PromiseTraceRecorder.Stage getTraceStage() {
+        synchronized(this) {
+            return (mExtras == null) ? null : mExtras.traceStage;
+        }
+    }
+
+    /**
+     * Records that this promise starts working (if it is recorded and recording is still on). Promises created until
+     * the returned stage is stopped are recorded as created by this one.
+     *
+     * @return the stage to stop - or null if nothing is recorded
+     */
+    PromiseTraceRecorder.Stage traceStarted() {
+        if (mTraceRecorder == null) {
+            return null;
+        }
+        PromiseTraceRecorder.Stage traceStage = getTraceStage();
+        if (traceStage != null) {
+            traceStage.started();
+        }
+        return traceStage;
+    }
+
+    /**
+     * Records a link to an ancestor (if both are recorded and recording is still on). Unlike the ancestors used for
+     * cancellation, this includes ancestors which are already settled.
+     */
+    void traceAncestor(Promise<?> ancestor) {
+        if (mTraceRecorder == null) {
+            return;
+        }
+        PromiseTraceRecorder.Stage traceStage = getTraceStage();
+        if (traceStage != null) {
+            PromiseTraceRecorder.Stage ancestorStage = ancestor.getTraceStage();
+            if (ancestorStage != null) {
+                traceStage.addAncestor(ancestorStage);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     protected void addAncestor(Promise<?> ancestor) {
+        traceAncestor(ancestor);
         if (ancestor.isFinished()) {
             return;
         }
+        // Count first: Once the link is visible, settling this promise gives the count back
+        synchronized (ancestor) {
+            ancestor.mChildCount++;
+        }
+        WeakReference<Promise<?>> ancestorRef = new WeakReference<Promise<?>>(ancestor);
         synchronized (this) {
-            if (mAncestorPromises == null) {
-                mAncestorPromises = new ArrayList<WeakReference<Promise<?>>>(1);
+            if (isFinished()) {
+                ancestorRef = null;
+            } else if (mAncestors == null) {
+                mAncestors = ancestorRef;
+            } else if (mAncestors instanceof WeakReference) {
+                List<WeakReference<Promise<?>>> ancestors = new ArrayList<WeakReference<Promise<?>>>(2);
+                ancestors.add((WeakReference<Promise<?>>) mAncestors);
+                ancestors.add(ancestorRef);
+                mAncestors = ancestors;
+            } else {
+                ((List<WeakReference<Promise<?>>>) mAncestors).add(ancestorRef);
             }
-            mAncestorPromises.add(new WeakReference<Promise<?>>(ancestor));
+        }
+        if (ancestorRef == null) {
+            // This promise settled meanwhile (e.g. an all() rejected by an earlier item) -> It's no child anymore
+            ancestor.releaseChild();
+        }
+    }
+
+    /**
+     * Gives back the child count this promise holds on its ancestors, after it settled without being cancelled.
+     * (The cancel walk gives back the counts of cancelled promises itself.)
+     */
+    @SuppressWarnings("unchecked")
+    private static void releaseAncestors(Object ancestors) {
+        if (ancestors instanceof WeakReference) {
+            Promise<?> ancestor = ((WeakReference<Promise<?>>) ancestors).get();
+            if (ancestor != null) {
+                ancestor.releaseChild();
+            }
+        } else if (ancestors instanceof List) {
+            for (WeakReference<Promise<?>> ancestorRef : (List<WeakReference<Promise<?>>>) ancestors) {
+                releaseAncestors(ancestorRef);
+            }
+        }
+    }
+
+    /**
+     * Removes one child from the child count.
+     *
+     * @return whether this was the last child and this promise is still unsettled
+     */
+    protected boolean releaseChild() {
+        synchronized (this) {
+            if (mChildCount > 0) {
+                mChildCount--;
+            }
+            return mChildCount == 0 && !isFinished();
         }
     }
 
+    protected void onCancel(Runnable handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler is null");
+        }
+
+        synchronized(this) {
+            if (! isFinished()) {
+                mHandlers = new Subscription(null, handler, Subscription.CANCEL, getSubscriptions());
+                return;
+            }
+        }
+
+        if (isCancelled()) {
+            fireCancel(handler);
+        }
+    }
+
+    /**
+     * Sets whether the current thread should be interrupted if the promise is cancelled while it is executing.
+     * Must be called by the thread running <code>execute(Resolver)</code>.
+     *
+     * @param interruptOnCancel whether to interrupt the executing thread on cancel
+     */
+    protected void setInterruptOnCancel(boolean interruptOnCancel) {
+        synchronized(this) {
+            Extras extras = getExtras();
+            extras.interruptOnCancel = interruptOnCancel;
+            extras.interruptThread = (mResult == State.EXECUTING) ? Thread.currentThread() : null;
+        }
+    }
+
+    /**
+     * Returns the extras of this promise, creating them if needed. The caller must hold the lock.
+     */
+    private Extras getExtras() {
+        if (mExtras == null) {
+            mExtras = new Extras();
+        }
+        return mExtras;
+    }
+
     protected void resolve(ValueType value) {
         if (value instanceof Promise) {
             // TODO: Check this in constructor (but how?)
@@ -199,9 +909,7 @@ public abstract class Promise<ValueType> {
             if (isFinished()) {
                 return;
             }
-            mState = State.RESOLVED;
-            mValue = value;
-            this.notifyAll();
+            mResult = (value instanceof State) ? new BoxedValue(value) : value;
         }
 
         fireFinished();
@@ -209,19 +917,19 @@ public abstract class Promise<ValueType> {
 
     protected void resolve(Promise<ValueType> valuePromise) {
         addAncestor(valuePromise);
-        valuePromise
-                .onValue(new PromiseValueHandler<ValueType>() {
-                    @Override
-                    public void onValue(ValueType value) {
-                        resolve(value);
-                    }
-                })
-                .onError(new PromiseErrorHandler() {
-                    @Override
-                    public void onError(Throwable thr) {
-                        reject(thr);
-                    }
-                });
+        valuePromise.forwardTo(null, this);
+    }
+
+    /**
+     * Settles another promise with the result of this one and forwards progress to it - without linking them for
+     * cancellation.
+     *
+     * @param executor the executor to settle the target in. If null, the default executor is used.
+     * @param target the promise to settle
+     */
+    void forwardTo(Executor executor, Promise<ValueType> target) {
+        // Progress is forwarded by notifyProgress, which finds the target by its ForwardHandler
+        subscribe(executor, new ForwardHandler<ValueType>(target), Subscription.ALWAYS);
     }
 
     protected void reject(Throwable thr) {
@@ -229,14 +937,16 @@ public abstract class Promise<ValueType> {
         synchronized(this) {
             alreadyFinished = isFinished();
             if (! alreadyFinished) {
-                mState = State.REJECTED;
-                mRejectCause = thr;
-                this.notifyAll();
+                mResult = new Rejection(thr);
             }
         }
 
-        if (alreadyFinished && !isCancelled (thr)) {
-            onFallbackError("Catched error after promise was finished", thr);
+        if (alreadyFinished) {
+            // A cancellation reaching a promise which is already settled (e.g. a cancelled child whose parent gets
+            // cancelled by cancel(true)) is expected - the handlers were fired already, so don't fire them again
+            if (!isCancelled(thr)) {
+                onFallbackError("Catched error after promise was finished", thr);
+            }
         } else {
             // TODO: Fallback-handle unhandled errors (Problem: error handlers may be called asynchronously in Executor)
             fireFinished();
@@ -250,62 +960,159 @@ public abstract class Promise<ValueType> {
     /**
      * Tries to cancel the promise.
      *
-     * @param wholeChain if true all parent promises having will be cancelled as well unless they have other uncancelled
-     *        child promises.
+     * @param wholeChain if true all parent promises will be cancelled as well unless they have other uncancelled
+     *        child promises. Every promise counts the children registered on it (e.g. by <code>then</code> or
+     *        <code>all</code>), a parent is only cancelled when its last child is gone.
      * @return whether the promise could be cancelled (= whether it hasn't settled before)
      */
+    @SuppressWarnings("unchecked")
     public boolean cancel(boolean wholeChain) {
-        synchronized(this) {
-            if (isFinished()) {
-                return false;
-            }
-            mState = State.REJECTED;
-            mRejectCause = new CancellationException("Promise was cancelled");
+        PromiseEventListener eventListener = mEventListener;
+        Object eventContext = (eventListener == null) ? null : eventListener.onCancelStarted(this);
 
-            if (wholeChain && (mAncestorPromises != null)) {
-                for (WeakReference<Promise<?>> promiseRef : mAncestorPromises) {
-                    Promise promise = promiseRef.get();
-                    if (promise != null) {
-                        promise.cancel(true);
+        Object ancestors = cancelSelf();
+        if (ancestors == null) {
+            if (eventListener != null) {
+                eventListener.onCancelFinished(this, eventContext, 0);
+            }
+            return false;
+        }
+        int cancelledCount = 1;
+
+        // Walk up the chain iteratively, so long chains don't blow the stack. No lock is held while walking.
+        Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(ancestors);
+        while (! pending.isEmpty()) {
+            Object item = pending.pop();
+            if (item instanceof List) {
+                for (WeakReference<Promise<?>> promiseRef : (List<WeakReference<Promise<?>>>) item) {
+                    pending.push(promiseRef);
+                }
+            } else if (item instanceof WeakReference) {
+                Promise<?> promise = ((WeakReference<Promise<?>>) item).get();
+                if (promise != null && promise.releaseChild() && wholeChain) {
+                    Object nextAncestors = promise.cancelSelf();
+                    if (nextAncestors != null) {
+                        cancelledCount++;
+                        pending.push(nextAncestors);
                     }
                 }
             }
+        }
+
+        if (eventListener != null) {
+            eventListener.onCancelFinished(this, eventContext, cancelledCount);
+        }
+        return true;
+    }
+
+    private static final Object NO_ANCESTORS = new Object();
 
-            this.notifyAll();
+    /**
+     * Cancels this promise without touching its ancestors.
+     *
+     * @return the ancestors of this promise (a WeakReference, a list of them or NO_ANCESTORS) - or null if the promise
+     *         was already settled
+     */
+    private Object cancelSelf() {
+        Object ancestors;
+        synchronized(this) {
+            if (isFinished()) {
+                return null;
+            }
+            mResult = new Rejection(new CancellationException("Promise was cancelled"));
+            // Take the ancestors, so fireFinished leaves their child counts to the cancel walk
+            ancestors = mAncestors;
+            mAncestors = null;
         }
 
         fireFinished();
 
-        return true;
+        return (ancestors == null) ? NO_ANCESTORS : ancestors;
     }
 
+    @SuppressWarnings("unchecked")
     protected void fireFinished() {
         assertFinished();
 
-        State state;
-        List<Subscription<PromiseValueHandler<ValueType>>> valueHandlers;
-        List<Subscription<PromiseErrorHandler>> errorHandlers;
-        List<Subscription<Runnable>> alwaysHandlers;
+        Object handlers;
+        Object ancestors;
+        Waiter waiters = null;
+        PromiseTraceRecorder.Stage traceStage = null;
         synchronized(this) {
-            state = mState;
-            valueHandlers     = mValueHandlers;
-            errorHandlers     = mErrorHandlers;
-            mValueHandlers    = null;
-            mErrorHandlers    = null;
-            mAncestorPromises = null;
+            handlers   = mHandlers;
+            mHandlers  = null;
+            ancestors  = mAncestors;
+            mAncestors = null;
+
+            Extras extras = mExtras;
+            if (extras != null) {
+                waiters = extras.waiters;
+                extras.waiters = null;
+                extras.progressHandlers = null;
+                extras.forkJoinTask = null;
+                extras.forkJoinPool = null;
+                // A lazy promise which settled before it was started (e.g. by cancel) won't start anymore
+                extras.lazy = false;
+                extras.lazyExecutor = null;
+                traceStage = extras.traceStage;
+
+                if (extras.interruptOnCancel && extras.interruptThread != null && isCancelled()) {
+                    // Interrupt while holding the lock, so the executing thread can't move on to another task meanwhile
+                    extras.interruptThread.interrupt();
+                    extras.interruptedByCancel = true;
+                }
+            }
+        }
+
+        releaseAncestors(ancestors);
+
+        if (traceStage != null) {
+            traceStage.settled(isCancelled() ? "cancelled" : ((getState() == State.REJECTED) ? "rejected" : "resolved"));
+        }
+        PromiseEventListener eventListener = mEventListener;
+        if (eventListener != null) {
+            eventListener.onSettled(this);
+        }
+
+        // The list was built in reverse order -> Reverse it, so handlers are called in the order they were added
+        Subscription subscriptions = null;
+        if (handlers instanceof Subscription) {
+            for (Subscription subscription = (Subscription) handlers; subscription != null; ) {
+                Subscription next = subscription.next;
+                subscription.next = subscriptions;
+                subscriptions = subscription;
+                subscription = next;
+            }
+        }
+
+        State state = getState();
+        if (state == State.REJECTED && isCancelled()) {
+            for (Subscription subscription = subscriptions; subscription != null; subscription = subscription.next) {
+                if (subscription.kinds == Subscription.CANCEL) {
+                    fireCancel((Runnable) subscription.handler);
+                }
+            }
         }
 
         if (state == State.RESOLVED) {
-            if (valueHandlers != null) {
-                for (Subscription<PromiseValueHandler<ValueType>> subscription : valueHandlers) {
-                    fireValue(subscription.executor, subscription.handler);
+            if (handlers != null && !(handlers instanceof Subscription)) {
+                fireValue(null, (PromiseValueHandler<ValueType>) handlers);
+            }
+            for (Subscription subscription = subscriptions; subscription != null; subscription = subscription.next) {
+                if ((subscription.kinds & Subscription.VALUE) != 0) {
+                    fireValue(subscription.executor, (PromiseValueHandler<ValueType>) subscription.handler);
                 }
             }
         } else if (state == State.REJECTED) {
             boolean errorWasHandled = false;
-            if (errorHandlers != null) {
-                for (Subscription<PromiseErrorHandler> subscription : errorHandlers) {
-                    fireError(subscription.executor, subscription.handler);
+            if (handlers != null && !(handlers instanceof Subscription)) {
+                fireError(null, (PromiseErrorHandler) handlers);
+                errorWasHandled = !(handlers instanceof AlwaysWrapper);
+            }
+            for (Subscription subscription = subscriptions; subscription != null; subscription = subscription.next) {
+                if ((subscription.kinds & Subscription.ERROR) != 0) {
+                    fireError(subscription.executor, (PromiseErrorHandler) subscription.handler);
                     if (!(subscription.handler instanceof AlwaysWrapper)) {
                         errorWasHandled = true;
                     }
@@ -313,19 +1120,39 @@ public abstract class Promise<ValueType> {
             }
 
             if (!errorWasHandled) {
+                if (eventListener != null && ! isCancelled()) {
+                    eventListener.onUnhandledRejection(this, getRejectCause());
+                }
                 if (mFallbackErrorHandler == null) {
-                    mFallbackErrorHandler = new Subscription<PromiseErrorHandler>(
+                    mFallbackErrorHandler = new Subscription(
                             null,
                             new PromiseErrorHandler() {
                                 public void onError(Throwable thr) {
                                     onFallbackError("Error at the end of a promise chain", thr);
                                 }
-                            });
+                            },
+                            Subscription.ERROR,
+                            null);
                 }
-                fireError(mFallbackErrorHandler.executor, mFallbackErrorHandler.handler);
+                fireError(mFallbackErrorHandler.executor, (PromiseErrorHandler) mFallbackErrorHandler.handler);
             }
         } else {
-            onFallbackError("Expected finished state, not " + mState);
+            onFallbackError("Expected finished state, not " + state);
+        }
+
+        // Wake up waiting threads after the handlers were dispatched. Only the waiters of this promise are woken.
+        while (waiters != null) {
+            Waiter next = waiters.next;
+            waiters.release();
+            waiters = next;
+        }
+    }
+
+    protected void fireCancel(Runnable handler) {
+        try {
+            handler.run();
+        } catch (Throwable thr) {
+            onFallbackError("Calling onCancel handler failed", thr);
         }
     }
 
@@ -337,10 +1164,11 @@ public abstract class Promise<ValueType> {
             executor = getDefaultExecutor();
         }
 
-        executor.execute(new Runnable() {
+        final ValueType value = getValue();
+        dispatchHandler(executor, handler, new Runnable() {
             public void run() {
                 try {
-                    handler.onValue(mValue);
+                    handler.onValue(value);
                 } catch (Throwable thr) {
                     String handlerType = (handler instanceof AlwaysWrapper) ? "always" : "onValue";
                     onFallbackError("Calling " + handlerType + " handler failed", thr);
@@ -349,94 +1177,405 @@ public abstract class Promise<ValueType> {
         });
     }
 
-    protected void fireError(Executor executor, final PromiseErrorHandler handler) {
-        assertState(State.REJECTED);
+    protected void fireError(Executor executor, final PromiseErrorHandler handler) {
+        assertState(State.REJECTED);
+
+        if (executor == null) {
+            executor = getDefaultExecutor();
+        }
+
+        final Throwable rejectCause = getRejectCause();
+        dispatchHandler(executor, handler, new Runnable() {
+            public void run() {
+                try {
+                    handler.onError(rejectCause);
+                } catch (Throwable thr) {
+                    String handlerType = (handler instanceof AlwaysWrapper) ? "always" : "onError";
+                    onFallbackError("Calling " + handlerType + " handler failed", thr);
+                }
+            }
+        });
+    }
+
+    protected static void onFallbackError(String msg) {
+        onFallbackError(msg, new Exception(msg));
+    }
+
+    protected static void onFallbackError(String msg, Throwable thr) {
+        System.err.println(msg);
+        thr.printStackTrace();
+    }
+
+    /**
+     * Resets a settled promise to the initial state, so it can be reused (see {@link DeferredPool}).
+     * The caller must ensure that nobody holds a reference to the promise anymore.
+     */
+    protected void reset() {
+        synchronized(this) {
+            assertFinished();
+            mResult = State.QUEUED;
+            mChildCount = 0;
+            mExtras = null;
+        }
+    }
+
+    protected void assertState(State state) {
+        State currentState = getState();
+        if (currentState != state) {
+            throw new IllegalStateException("Expected promise state " + state + ", not " + currentState);
+        }
+    }
+
+    protected void assertFinished() {
+        if (! isFinished()) {
+            throw new IllegalStateException("Promise is not finished yet");
+        }
+    }
+
+    /**
+     * Returns the value if the promise was resolved. In other cases null is returned.
+     *
+     * @return the value - or null if there is no value (yet)
+     */
+    @SuppressWarnings("unchecked")
+    public ValueType getValue() {
+        Object result = mResult;
+        if (result instanceof State || result instanceof Rejection) {
+            return null;
+        } else if (result instanceof BoxedValue) {
+            return (ValueType) ((BoxedValue) result).value;
+        } else {
+            return (ValueType) result;
+        }
+    }
+
+    /**
+     * Returns the exception if the promise was rejected. In other cases null is returned.
+     *
+     * @return the exception - or null if there is no exception (yet)
+     */
+    public Throwable getRejectCause() {
+        Object result = mResult;
+        return (result instanceof Rejection) ? ((Rejection) result).cause : null;
+    }
+
+    public ValueType waitForResult() throws Exception {
+        return waitForResult(-1);
+    }
+
+    /**
+     * Waits until the promise is settled and returns its value.
+     *
+     * @param timeout the maximum time to wait in milliseconds. If <code>timeout &lt;= 0</code>, there is no time limit.
+     * @return the value
+     * @throws TimeoutException if the promise didn't settle in time
+     * @throws Exception the reject cause if the promise was rejected
+     */
+    public ValueType waitForResult(long timeout) throws Exception {
+        if (timeout > 0) {
+            if (! await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Waiting for promise result timed out");
+            }
+        } else {
+            await();
+        }
+
+        State state = getState();
+        if (state == State.RESOLVED) {
+            return getValue();
+        } else if (state == State.REJECTED) {
+            Throwable rejectCause = getRejectCause();
+            if (rejectCause instanceof Error) {
+                throw (Error) rejectCause;
+            } else {
+                throw (Exception) rejectCause;
+            }
+        } else {
+            throw new IllegalStateException("Expected settled state, but state is " + state);
+        }
+    }
+
+    /**
+     * Waits until the promise is settled.
+     *
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        awaitNanos(false, 0, true);
+    }
+
+    /**
+     * Waits until the promise is settled or the timeout elapsed.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return whether the promise is settled
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitNanos(true, unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Waits until the promise is settled. If the current thread is interrupted while waiting, it will continue to wait
+     * and the interrupt status will be set again when this method returns.
+     */
+    public void awaitUninterruptibly() {
+        try {
+            awaitNanos(false, 0, false);
+        } catch (InterruptedException exc) {
+            throw new IllegalStateException("Uninterruptible wait was interrupted", exc);
+        }
+    }
+
+    /**
+     * Waits uninterruptibly until the promise is settled and returns its value. If the promise was rejected, the
+     * reject cause is thrown as it is - even if it is a checked exception.
+     *
+     * @return the value
+     */
+    public ValueType join() {
+        awaitUninterruptibly();
+
+        if (getState() == State.RESOLVED) {
+            return getValue();
+        } else {
+            throw Promise.<RuntimeException>sneakyThrow(getRejectCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <ThrowableType extends Throwable> ThrowableType sneakyThrow(Throwable thr) throws ThrowableType {
+        throw (ThrowableType) thr;
+    }
+
+    /**
+     * Waits until all promises are settled.
+     *
+     * @param promises the promises to wait for
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public static void awaitAll(Collection<? extends Promise<?>> promises) throws InterruptedException {
+        awaitBulk(promises, promises.size(), false, 0);
+    }
+
+    /**
+     * Waits until all promises are settled or the timeout elapsed. The calling thread is parked only once for all
+     * promises, not once per promise.
+     *
+     * @param promises the promises to wait for
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return whether all promises are settled
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public static boolean awaitAll(Collection<? extends Promise<?>> promises, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        return awaitBulk(promises, promises.size(), true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Waits until at least one of the promises is settled.
+     *
+     * @param promises the promises to wait for
+     * @return a settled promise
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public static <PromiseType extends Promise<?>> PromiseType awaitAny(Collection<PromiseType> promises)
+            throws InterruptedException
+    {
+        return awaitAny(promises, false, 0);
+    }
+
+    /**
+     * Waits until at least one of the promises is settled or the timeout elapsed. The calling thread is parked only
+     * once for all promises.
+     *
+     * @param promises the promises to wait for
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return a settled promise - or null if the timeout elapsed before
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public static <PromiseType extends Promise<?>> PromiseType awaitAny(Collection<PromiseType> promises,
+            long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return awaitAny(promises, true, unit.toNanos(timeout));
+    }
 
-        if (executor == null) {
-            executor = getDefaultExecutor();
+    private static <PromiseType extends Promise<?>> PromiseType awaitAny(Collection<PromiseType> promises,
+            boolean timed, long nanos) throws InterruptedException
+    {
+        if (promises.isEmpty()) {
+            throw new IllegalArgumentException("promises is empty");
         }
 
-        executor.execute(new Runnable() {
-            public void run() {
-                try {
-                    handler.onError(mRejectCause);
-                } catch (Throwable thr) {
-                    String handlerType = (handler instanceof AlwaysWrapper) ? "always" : "onError";
-                    onFallbackError("Calling " + handlerType + " handler failed", thr);
+        if (awaitBulk(promises, 1, timed, nanos)) {
+            // Every promise went through addWaiter or removeWaiter, so their state is visible here
+            for (PromiseType promise : promises) {
+                if (promise.isFinished()) {
+                    return promise;
                 }
             }
-        });
-    }
-
-    protected static void onFallbackError(String msg) {
-        onFallbackError(msg, new Exception(msg));
+        }
+        return null;
     }
 
-    protected static void onFallbackError(String msg, Throwable thr) {
-        System.err.println(msg);
-        thr.printStackTrace();
-    }
+    /**
+     * Registers one shared latch at all promises and parks until <code>required</code> promises are settled.
+     *
+     * @return whether <code>required</code> promises are settled - false if the timeout elapsed before
+     */
+    private static boolean awaitBulk(Collection<? extends Promise<?>> promises, int required, boolean timed,
+            long nanos) throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
 
-    protected void assertState(State state) {
-        if (mState != state) {
-            throw new IllegalStateException("Expected promise state " + state + ", not " + mState);
+        final AtomicInteger remaining = new AtomicInteger(required);
+        Promise<?>[] registeredPromises = new Promise<?>[promises.size()];
+        BulkWaiter[] waiters = new BulkWaiter[promises.size()];
+        int registeredCount = 0;
+        int settledCount = 0;
+        for (Promise<?> promise : promises) {
+            BulkWaiter waiter = new BulkWaiter(remaining);
+            if (promise.addWaiter(waiter)) {
+                registeredPromises[registeredCount] = promise;
+                waiters[registeredCount] = waiter;
+                registeredCount++;
+            } else {
+                settledCount++;
+                if (remaining.decrementAndGet() <= 0) {
+                    break;
+                }
+            }
         }
-    }
 
-    protected void assertFinished() {
-        if (! isFinished()) {
-            throw new IllegalStateException("Promise is not finished yet");
+        ParkingBlocker blocker = new ParkingBlocker(timed, nanos, true) {
+            @Override
+            public boolean isReleasable() {
+                return remaining.get() <= 0;
+            }
+        };
+        try {
+            blocker.awaitRelease();
+        } finally {
+            // Unregister from the promises which didn't take our waiter yet, so they don't collect stale waiters
+            for (int i = 0; i < registeredCount; i++) {
+                if (waiters[i].released || ! registeredPromises[i].removeWaiter(waiters[i])
+                        || registeredPromises[i].isFinishedLocked())
+                {
+                    settledCount++;
+                }
+            }
         }
+
+        return settledCount >= required;
     }
 
     /**
-     * Returns the value if the promise was resolved. In other cases null is returned.
-     *
-     * @return the value - or null if there is no value (yet)
+     * If this promise was executed by a {@link PromiseForkJoinExecutor} and the current thread is a worker of its pool,
+     * joins the execution task. So a worker waiting for a child promise runs or steals queued work instead of idling.
+     * Joining ignores timeouts and interrupts, so this must only be called for untimed waits.
      */
-    public ValueType getValue() {
-        return mValue;
+    private void helpExecute() {
+        ForkJoinTask<?> forkJoinTask;
+        ForkJoinPool forkJoinPool;
+        synchronized(this) {
+            forkJoinTask = (mExtras == null) ? null : mExtras.forkJoinTask;
+            forkJoinPool = (mExtras == null) ? null : mExtras.forkJoinPool;
+        }
+        if (forkJoinTask != null && ForkJoinTask.getPool() == forkJoinPool) {
+            forkJoinTask.quietlyJoin();
+        }
     }
 
     /**
-     * Returns the exception if the promise was rejected. In other cases null is returned.
+     * Adds a waiter which is released when this promise settles.
      *
-     * @return the exception - or null if there is no exception (yet)
+     * @return whether the waiter was added - false if this promise is already settled
      */
-    public Throwable getRejectCause() {
-        return mRejectCause;
+    private boolean addWaiter(Waiter waiter) {
+        Extras lazyExtras;
+        synchronized(this) {
+            if (isFinished()) {
+                return false;
+            }
+            Extras extras = getExtras();
+            waiter.next = extras.waiters;
+            extras.waiters = waiter;
+            lazyExtras = takeLazy();
+        }
+
+        if (lazyExtras != null) {
+            execute(lazyExtras.lazyExecutor);
+        }
+        return true;
     }
 
-    public ValueType waitForResult() throws Exception {
-        return waitForResult(-1);
+    private boolean awaitNanos(boolean timed, long nanos, boolean interruptible) throws InterruptedException {
+        if (interruptible && Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (! timed) {
+            helpExecute();
+        }
+
+        final Waiter waiter = new Waiter();
+        if (! addWaiter(waiter)) {
+            return true;
+        }
+
+        ParkingBlocker blocker = new ParkingBlocker(timed, nanos, interruptible) {
+            @Override
+            public boolean isReleasable() {
+                return waiter.released;
+            }
+        };
+        try {
+            blocker.awaitRelease();
+        } catch (InterruptedException exc) {
+            removeWaiter(waiter);
+            throw exc;
+        }
+
+        if (blocker.timedOut) {
+            return ! removeWaiter(waiter);
+        }
+        return true;
     }
 
-    public ValueType waitForResult(long timeout) throws Exception {
-        long timeoutTime = (timeout > 0) ? (System.currentTimeMillis() + timeout) : -1;
+    /**
+     * Removes a waiter which gave up waiting.
+     *
+     * @return whether the waiter was removed - false if this promise settled and already took the waiter
+     */
+    private boolean removeWaiter(Waiter waiter) {
         synchronized(this) {
-            while (! isFinished()) {
-                if (timeout > 0) {
-                    long timeLeft = timeoutTime - System.currentTimeMillis();
-                    if (timeLeft < 0) {
-                        throw new TimeoutException("Waiting for promise result timed out");
+            if (mExtras == null) {
+                return false;
+            }
+            Waiter prev = null;
+            for (Waiter current = mExtras.waiters; current != null; current = current.next) {
+                if (current == waiter) {
+                    if (prev == null) {
+                        mExtras.waiters = current.next;
+                    } else {
+                        prev.next = current.next;
                     }
-                    this.wait(timeLeft);
-                } else {
-                    this.wait();
+                    return true;
                 }
+                prev = current;
             }
+            return false;
         }
+    }
 
-        if (mState == State.RESOLVED) {
-            return mValue;
-        } else if (mState == State.REJECTED) {
-            if (mRejectCause instanceof Error) {
-                throw (Error) mRejectCause;
-            } else {
-                throw (Exception) mRejectCause;
-            }
-        } else {
-            throw new IllegalStateException("Expected settled state, but state is " + mState);
+    private boolean isFinishedLocked() {
+        synchronized(this) {
+            return isFinished();
         }
     }
 
@@ -456,19 +1595,118 @@ public abstract class Promise<ValueType> {
         }
     }
 
+    /**
+     * Calls promise factories one after another. Each factory is called when the promise of the previous one resolved.
+     * The iteration is driven by a loop which only holds the current promise, so the stack and the promises kept don't
+     * grow with the number of steps.
+     *
+     * @param factories the factories to call
+     * @return a promise resolving to the values of all factories' promises - or rejected with the first error
+     */
+    public static <ValueType> Promise<List<ValueType>> sequence(
+            Iterable<? extends PromiseFactory<? extends ValueType>> factories)
+    {
+        final List<ValueType> values = new ArrayList<ValueType>();
+        return new SequencePromise<PromiseFactory<? extends ValueType>, List<ValueType>>(factories) {
+            @Override
+            protected Promise<?> startStep(PromiseFactory<? extends ValueType> factory) throws Throwable {
+                return factory.create();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void onStepValue(Object value) {
+                values.add((ValueType) value);
+            }
+
+            @Override
+            protected List<ValueType> getResult() {
+                return values;
+            }
+        }.start();
+    }
+
+    /**
+     * Calls a step for each item one after another. A step is called when the promise of the previous one resolved.
+     * Like {@link #sequence(Iterable)}, this uses constant stack and memory regardless of the number of items.
+     *
+     * @param items the items to iterate
+     * @param step the step called for each item
+     * @return a promise resolving when all steps are done - or rejected with the first error
+     */
+    public static <ItemType> Promise<Void> forEachSeq(Iterable<? extends ItemType> items,
+            final PromiseThenHandler<? super ItemType, ?> step)
+    {
+        return new SequencePromise<ItemType, Void>(items) {
+            @Override
+            protected Promise<?> startStep(ItemType item) throws Throwable {
+                return step.onValue(item);
+            }
+
+            @Override
+            protected void onStepValue(Object value) {
+            }
+
+            @Override
+            protected Void getResult() {
+                return null;
+            }
+        }.start();
+    }
+
+    /**
+     * Folds items asynchronously. Each step gets the accumulated value of the previous step and returns a promise of
+     * the new one. Like {@link #sequence(Iterable)}, this uses constant stack and memory regardless of the number of
+     * items.
+     *
+     * @param items the items to fold
+     * @param initial the accumulated value the first step gets
+     * @param step the step called for each item
+     * @return a promise resolving to the value of the last step (or <code>initial</code> if there are no items)
+     */
+    public static <AccumulatorType, ItemType> Promise<AccumulatorType> foldSeq(Iterable<? extends ItemType> items,
+            final AccumulatorType initial, final PromiseFoldHandler<AccumulatorType, ? super ItemType> step)
+    {
+        return new SequencePromise<ItemType, AccumulatorType>(items) {
+            private AccumulatorType mAccumulator = initial;
+
+            @Override
+            protected Promise<?> startStep(ItemType item) throws Throwable {
+                return step.onItem(mAccumulator, item);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void onStepValue(Object value) {
+                mAccumulator = (AccumulatorType) value;
+            }
+
+            @Override
+            protected AccumulatorType getResult() {
+                return mAccumulator;
+            }
+        }.start();
+    }
+
     protected void execute(Executor executor) {
         if (executor == null) {
             executor = getDefaultExecutor();
         }
 
-        executor.execute(new Runnable() {
+        Runnable executeTask = new Runnable() {
             public void run() {
                 try {
-                    synchronized(this) {
-                        if (mState != State.QUEUED) {
+                    boolean deadlinePassed;
+                    synchronized(Promise.this) {
+                        if (mResult != State.QUEUED) {
                             return; // This promise has already started
                         }
-                        mState = State.EXECUTING;
+                        mResult = State.EXECUTING;
+                        deadlinePassed = getRemainingNanosLocked() <= 0;
+                    }
+                    if (deadlinePassed) {
+                        reject(createDeadlineException());
+                        return;
                     }
 
                     Resolver<ValueType> resolver = new Resolver<ValueType>() {
@@ -484,22 +1722,118 @@ public abstract class Promise<ValueType> {
                         public boolean isCancelled() {
                             return Promise.this.isCancelled();
                         }
+                        public void onCancel(Runnable handler) {
+                            Promise.this.onCancel(handler);
+                        }
+                        public void setInterruptOnCancel(boolean interruptOnCancel) {
+                            Promise.this.setInterruptOnCancel(interruptOnCancel);
+                        }
+                        public void notifyProgress(Object progress) {
+                            Promise.this.notifyProgress(progress);
+                        }
+                        public long getRemainingNanos() {
+                            return Promise.this.getRemainingNanos();
+                        }
                     };
 
-                    execute(resolver);
+                    PromiseTraceRecorder.Stage traceStage = traceStarted();
+                    PromiseEventListener eventListener = mEventListener;
+                    Object eventContext = (eventListener == null) ? null : eventListener.onExecuteStarted(Promise.this);
+                    try {
+                        execute(resolver);
+                    } finally {
+                        if (eventListener != null) {
+                            eventListener.onExecuteFinished(Promise.this, eventContext);
+                        }
+                        if (traceStage != null) {
+                            traceStage.stopped();
+                        }
+                    }
 
-                    synchronized(this) {
+                    synchronized(Promise.this) {
                         if (! isFinished()) {
-                            mState = State.PENDING;
+                            mResult = State.PENDING;
                         }
                     }
                 } catch (Throwable thr) {
                     reject(thr);
+                } finally {
+                    synchronized(Promise.this) {
+                        if (mExtras != null && mExtras.interruptThread == Thread.currentThread()) {
+                            mExtras.interruptThread = null;
+                            if (mExtras.interruptedByCancel) {
+                                // Don't leak our interrupt into the next task of this thread
+                                Thread.interrupted();
+                            }
+                        }
+                    }
+                }
+            }
+        };
+
+        if (executor instanceof PromiseForkJoinExecutor) {
+            ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(executeTask);
+            synchronized(this) {
+                Extras extras = getExtras();
+                extras.forkJoinTask = forkJoinTask;
+                extras.forkJoinPool = ((PromiseForkJoinExecutor) executor).getPool();
+            }
+            ((PromiseForkJoinExecutor) executor).fork(forkJoinTask);
+        } else {
+            dispatch(executor, executeTask);
+        }
+    }
+
+
+    /**
+     * Passes a task of this promise to an executor, telling a priority executor the priority of this promise.
+     */
+    private void dispatch(Executor executor, Runnable task) {
+        if (executor instanceof PromisePriorityExecutor) {
+            ((PromisePriorityExecutor) executor).execute(task, getPriority());
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Dispatches the task calling a handler, telling the event listener (if any) how long it waited and ran.
+     */
+    private void dispatchHandler(Executor executor, Object handler, final Runnable task) {
+        final PromiseEventListener eventListener = mEventListener;
+        if (eventListener == null) {
+            dispatch(executor, task);
+            return;
+        }
+
+        final Object eventContext = eventListener.onHandlerDispatched(this, unwrapHandler(handler));
+        final long dispatchNanos = System.nanoTime();
+        dispatch(executor, new Runnable() {
+            public void run() {
+                long queueDelayNanos = System.nanoTime() - dispatchNanos;
+                try {
+                    task.run();
+                } finally {
+                    eventListener.onHandlerFinished(Promise.this, eventContext, queueDelayNanos);
                 }
             }
         });
     }
 
+    /**
+     * Returns the handler the caller passed for an internal handler - so profilers show the caller's code.
+     */
+    private static Object unwrapHandler(Object handler) {
+        if (handler instanceof AlwaysWrapper) {
+            return ((AlwaysWrapper<?>) handler).mNestedHandler;
+        } else if (handler instanceof ThenPromise) {
+            Object nestedHandler = ((ThenPromise<?, ?>) handler).mNestedHandler;
+            return (nestedHandler == null) ? handler : nestedHandler;
+        } else {
+            return handler;
+        }
+    }
+
 
     private static class DefaultExecutor implements Executor {
         private boolean mLoggedWarning = false;
@@ -541,49 +1875,75 @@ public abstract class Promise<ValueType> {
 
     }
 
-    private static class ThenWrapperHandler<ValueType, ChildValueType> implements PromiseValueHandler<ValueType>, PromiseErrorHandler {
+    /**
+     * The child promise created by <code>then</code>. It is the handler of its parent promise as well, so a
+     * <code>then</code> call needs no extra handler object.
+     */
+    private static class ThenPromise<ValueType, ChildValueType> extends Promise<ChildValueType>
+            implements PromiseValueHandler<ValueType>, PromiseErrorHandler
+    {
 
         private PromiseThenHandler<ValueType, ChildValueType> mNestedHandler;
-        private Promise<ChildValueType> mChildPromise;
 
 
-        ThenWrapperHandler(PromiseThenHandler<ValueType, ChildValueType> nestedHandler) {
+        ThenPromise(PromiseThenHandler<ValueType, ChildValueType> nestedHandler) {
+            super(null, false);
             mNestedHandler = nestedHandler;
-            mChildPromise = new Promise<ChildValueType>() {
-                @Override
-                protected void execute(Resolver<ChildValueType> resolver) {
-                }
-            };
         }
 
-        public Promise<ChildValueType> getChildPromise() {
-            return mChildPromise;
+        @Override
+        protected void execute(Resolver<ChildValueType> resolver) {
         }
 
         @Override
         public void onValue(ValueType value) {
+            PromiseThenHandler<ValueType, ChildValueType> nestedHandler = mNestedHandler;
+            mNestedHandler = null;
+            if (getRemainingNanos() <= 0) {
+                // Don't start work nobody waits for anymore
+                reject(createDeadlineException());
+                return;
+            }
+            PromiseTraceRecorder.Stage traceStage = traceStarted();
             try {
-                mNestedHandler.onValue(value)
-                        .onValue(new PromiseValueHandler<ChildValueType>() {
-                            @Override
-                            public void onValue(ChildValueType childValue) {
-                                mChildPromise.resolve(childValue);
-                            }
-                        })
-                        .onError(new PromiseErrorHandler() {
-                            @Override
-                            public void onError(Throwable thr) {
-                                mChildPromise.reject(thr);
-                            }
-                        });
+                resolve(nestedHandler.onValue(value));
             } catch (Throwable thr) {
-                mChildPromise.reject(thr);
+                reject(thr);
+            } finally {
+                if (traceStage != null) {
+                    traceStage.stopped();
+                }
             }
         }
 
         @Override
         public void onError(Throwable thr) {
-            mChildPromise.reject(thr);
+            mNestedHandler = null;
+            reject(thr);
+        }
+    }
+
+
+    /**
+     * Settles a target promise with the result of the promise it is subscribed to. Progress is forwarded by the
+     * subscribed promise (see getForwardTargets).
+     */
+    private static class ForwardHandler<ValueType> implements PromiseValueHandler<ValueType>, PromiseErrorHandler {
+
+        final Promise<ValueType> mTarget;
+
+        ForwardHandler(Promise<ValueType> target) {
+            mTarget = target;
+        }
+
+        @Override
+        public void onValue(ValueType value) {
+            mTarget.resolve(value);
+        }
+
+        @Override
+        public void onError(Throwable thr) {
+            mTarget.reject(thr);
         }
     }
 
@@ -608,24 +1968,147 @@ public abstract class Promise<ValueType> {
     }
 
 
+    /**
+     * Drives a sequence of steps with a loop. A step finishing synchronously (e.g. when handlers are called in the
+     * settling thread) just makes the running loop do another round instead of nesting a call.
+     */
+    private static abstract class SequencePromise<ItemType, ValueType> extends Promise<ValueType>
+            implements PromiseValueHandler<Object>, PromiseErrorHandler
+    {
+
+        private final Iterator<? extends ItemType> mItems;
+        /** The number of finished steps the loop didn't process yet. The loop runs while it's not zero. */
+        private final AtomicInteger mPendingCount = new AtomicInteger();
+        private volatile Promise<?> mCurrentStep;
+        private Object mStepValue;
+        private boolean mStarted;
+
+
+        SequencePromise(Iterable<? extends ItemType> items) {
+            super(null, false);
+            mItems = items.iterator();
+            onCancel(new Runnable() {
+                @Override
+                public void run() {
+                    Promise<?> step = mCurrentStep;
+                    if (step != null) {
+                        step.cancel(true);
+                    }
+                }
+            });
+        }
+
+        protected abstract Promise<?> startStep(ItemType item) throws Throwable;
+
+        protected abstract void onStepValue(Object value);
+
+        protected abstract ValueType getResult();
+
+        @Override
+        protected void execute(Resolver<ValueType> resolver) {}
+
+        Promise<ValueType> start() {
+            onStepFinished(null);
+            return this;
+        }
+
+        @Override
+        public void onValue(Object value) {
+            onStepFinished(value);
+        }
+
+        private void onStepFinished(Object value) {
+            mStepValue = value;
+            if (mPendingCount.getAndIncrement() == 0) {
+                runLoop();
+            }
+        }
+
+        @Override
+        public void onError(Throwable thr) {
+            mCurrentStep = null;
+            reject(thr);
+        }
+
+        private void runLoop() {
+            do {
+                mCurrentStep = null;
+                if (mStarted) {
+                    onStepValue(mStepValue);
+                }
+                mStarted = true;
+                mStepValue = null;
+
+                if (isFinished()) {
+                    // Cancelled
+                    return;
+                }
+                if (! mItems.hasNext()) {
+                    resolve(getResult());
+                    return;
+                }
+
+                try {
+                    Promise<?> step = startStep(mItems.next());
+                    if (step == null) {
+                        throw new NullPointerException("Step returned no promise");
+                    }
+                    mCurrentStep = step;
+                    step.subscribe(null, this, Subscription.ALWAYS);
+                } catch (Throwable thr) {
+                    reject(thr);
+                    return;
+                }
+            } while (mPendingCount.decrementAndGet() != 0);
+        }
+
+    }
+
+
     private static class AllPromise extends Promise<Object[]> {
 
         private final Object[] mGatheredValues;
         private int mPendingHandlerCount;
 
         AllPromise(Object... promisesOrValues) {
+            super(null, false);
             mGatheredValues = new Object[promisesOrValues.length];
-            mPendingHandlerCount = 0;
+            // Hold one count while registering, so an item settling meanwhile can't bring the count to 0 too early
+            mPendingHandlerCount = 1;
+
+            // The gathered promise is as urgent as its most urgent input
+            boolean hasPromiseItem = false;
+            int maxPriority = Integer.MIN_VALUE;
+            for (Object item : promisesOrValues) {
+                if (item instanceof Promise) {
+                    hasPromiseItem = true;
+                    maxPriority = Math.max(maxPriority, ((Promise<?>) item).getPriority());
+                }
+            }
+            if (hasPromiseItem) {
+                setPriority(maxPriority);
+            }
 
             for (int i = 0; i < promisesOrValues.length; i++) {
                 Object item = promisesOrValues[i];
                 if (item instanceof Promise) {
+                    // The values are only gathered as Objects
+                    @SuppressWarnings("unchecked")
                     Promise<Object> promise = (Promise<Object>) item;
                     if (promise.isFinished()) {
+                        traceAncestor(promise);
+                        Throwable rejectCause = promise.getRejectCause();
+                        if (rejectCause != null) {
+                            reject(rejectCause);
+                            return;
+                        }
                         mGatheredValues[i] = promise.getValue();
                     } else {
                         addAncestor(promise);
-                        mPendingHandlerCount++;
+                        inheritFrom(promise, false);
+                        synchronized(mGatheredValues) {
+                            mPendingHandlerCount++;
+                        }
                         addHandlers(promise, i);
                     }
                 } else {
@@ -633,36 +2116,55 @@ public abstract class Promise<ValueType> {
                 }
             }
 
-            if (mPendingHandlerCount == 0) {
-                resolve(mGatheredValues);
-            }
+            onItemArrived();
         }
 
         @Override
         protected void execute(Resolver<Object[]> resolver) {}
 
-        private void addHandlers(Promise<Object> promise, final int valueIndex) {
-            promise
-                    .onValue(new PromiseValueHandler<Object>() {
-                        @Override
-                        public void onValue(Object value) {
-                            boolean finished;
-                            synchronized(mGatheredValues) {
-                                mPendingHandlerCount--;
-                                mGatheredValues[valueIndex] = value;
-                                finished = (mPendingHandlerCount == 0);
-                            }
-                            if (finished) {
-                                resolve(mGatheredValues);
-                            }
-                        }
-                    })
-                    .onError(new PromiseErrorHandler() {
-                        @Override
-                        public void onError(Throwable thr) {
-                            reject(thr);
-                        }
-                    });
+        private void addHandlers(Promise<Object> promise, int valueIndex) {
+            promise.subscribe(null, new ItemHandler(valueIndex), Subscription.ALWAYS);
+        }
+
+        private void onItemValue(int valueIndex, Object value) {
+            synchronized(mGatheredValues) {
+                mGatheredValues[valueIndex] = value;
+            }
+            onItemArrived();
+        }
+
+        /**
+         * Counts down one pending item (or the registration) and resolves when nothing is pending anymore.
+         */
+        private void onItemArrived() {
+            boolean finished;
+            synchronized(mGatheredValues) {
+                mPendingHandlerCount--;
+                finished = (mPendingHandlerCount == 0);
+            }
+            if (finished) {
+                resolve(mGatheredValues);
+            }
+        }
+
+
+        private class ItemHandler implements PromiseValueHandler<Object>, PromiseErrorHandler {
+
+            private final int mValueIndex;
+
+            ItemHandler(int valueIndex) {
+                mValueIndex = valueIndex;
+            }
+
+            @Override
+            public void onValue(Object value) {
+                onItemValue(mValueIndex, value);
+            }
+
+            @Override
+            public void onError(Throwable thr) {
+                reject(thr);
+            }
         }
 
     }
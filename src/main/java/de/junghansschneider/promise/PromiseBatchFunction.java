@@ -0,0 +1,15 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.List;
+import java.util.Map;
+
+public interface PromiseBatchFunction<KeyType, ValueType> {
+
+    Promise<Map<KeyType, ValueType>> load(List<KeyType> keys) throws Throwable;
+
+}
@@ -0,0 +1,210 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single lookups into batches, so N lookups cost one call of a batch function instead of N round trips.
+ *
+ * Keys passed to {@link #load(Object)} are collected until the collection window is over or the batch is full. Then
+ * the batch function is called once with all collected keys. Repeated keys of the same batch share one promise.
+ * Lookups of keys missing in the batch result resolve to null, a rejected batch rejects all its lookups.
+ *
+ * Results are not cached: a key loaded again after its batch was dispatched goes to the next batch.
+ */
+public class PromiseBatchLoader<KeyType, ValueType> {
+
+    private final PromiseBatchFunction<KeyType, ValueType> mBatchFunction;
+    private final long mWindowNanos;
+    private final int mMaxBatchSize;
+    private final ScheduledExecutorService mScheduler;
+    private final Executor mExecutor;
+
+    private Batch mBatch;
+
+
+    /**
+     * @param batchFunction the function loading a batch of keys
+     * @param windowMillis how long to collect keys after the first one of a batch in milliseconds
+     * @param maxBatchSize the number of (distinct) keys after which a batch is dispatched right away
+     */
+    public PromiseBatchLoader(PromiseBatchFunction<KeyType, ValueType> batchFunction, long windowMillis,
+            int maxBatchSize)
+    {
+        this(batchFunction, windowMillis, maxBatchSize, null, null);
+    }
+
+    /**
+     * @param batchFunction the function loading a batch of keys
+     * @param windowMillis how long to collect keys after the first one of a batch in milliseconds
+     * @param maxBatchSize the number of (distinct) keys after which a batch is dispatched right away
+     * @param scheduler the scheduler for ending the collection window. If null, the default scheduler is used.
+     * @param executor the executor to call the batch function in. If null, the default executor is used.
+     */
+    public PromiseBatchLoader(PromiseBatchFunction<KeyType, ValueType> batchFunction, long windowMillis,
+            int maxBatchSize, ScheduledExecutorService scheduler, Executor executor)
+    {
+        if (batchFunction == null) {
+            throw new NullPointerException("batchFunction is null");
+        }
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+
+        mBatchFunction = batchFunction;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mMaxBatchSize = maxBatchSize;
+        mScheduler = (scheduler == null) ? Promise.getDefaultScheduler() : scheduler;
+        mExecutor = executor;
+    }
+
+    /**
+     * Loads the value of a key with the next batch.
+     *
+     * @param key the key to load
+     * @return a promise resolving to the key's value
+     */
+    public Promise<ValueType> load(KeyType key) {
+        Batch dispatchBatch = null;
+        LoadPromise<ValueType> promise;
+        synchronized(this) {
+            if (mBatch == null) {
+                mBatch = new Batch();
+                scheduleWindowEnd(mBatch);
+            }
+
+            promise = mBatch.promises.get(key);
+            if (promise == null) {
+                promise = new LoadPromise<ValueType>();
+                mBatch.promises.put(key, promise);
+                if (mBatch.promises.size() >= mMaxBatchSize) {
+                    dispatchBatch = mBatch;
+                    mBatch = null;
+                }
+            }
+        }
+
+        if (dispatchBatch != null) {
+            dispatch(dispatchBatch);
+        }
+        return promise;
+    }
+
+    /**
+     * Dispatches the keys collected so far without waiting for the end of the collection window.
+     */
+    public void flush() {
+        Batch dispatchBatch;
+        synchronized(this) {
+            dispatchBatch = mBatch;
+            mBatch = null;
+        }
+
+        if (dispatchBatch != null) {
+            dispatch(dispatchBatch);
+        }
+    }
+
+    private void scheduleWindowEnd(final Batch batch) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Batch dispatchBatch = null;
+                synchronized(PromiseBatchLoader.this) {
+                    if (mBatch == batch) {
+                        dispatchBatch = mBatch;
+                        mBatch = null;
+                    }
+                }
+
+                if (dispatchBatch != null) {
+                    dispatch(dispatchBatch);
+                }
+            }
+        }, mWindowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void dispatch(final Batch batch) {
+        final ArrayList<KeyType> keys = new ArrayList<KeyType>(batch.promises.keySet());
+        // Subscribe before executing, so a synchronous rejection doesn't count as unhandled
+        Promise<Map<KeyType, ValueType>> batchPromise = new Promise<Map<KeyType, ValueType>>(null, false) {
+            @Override
+            protected void execute(Resolver<Map<KeyType, ValueType>> resolver) {
+                try {
+                    Promise<Map<KeyType, ValueType>> valuesPromise = mBatchFunction.load(keys);
+                    if (valuesPromise == null) {
+                        throw new NullPointerException("batch function returned null");
+                    }
+                    resolver.resolve(valuesPromise);
+                } catch (Throwable thr) {
+                    resolver.reject(thr);
+                }
+            }
+        };
+        batchPromise.onValue(new PromiseValueHandler<Map<KeyType, ValueType>>() {
+            @Override
+            public void onValue(Map<KeyType, ValueType> values) {
+                if (values == null) {
+                    rejectPending(batch, new NullPointerException("batch function returned null"));
+                    return;
+                }
+                try {
+                    for (Map.Entry<KeyType, LoadPromise<ValueType>> entry : batch.promises.entrySet()) {
+                        entry.getValue().resolve(values.get(entry.getKey()));
+                    }
+                } catch (Throwable thr) {
+                    // E.g. a map not supporting the key type - don't leave the remaining lookups pending
+                    rejectPending(batch, thr);
+                }
+            }
+        })
+        .onError(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                rejectPending(batch, thr);
+            }
+        });
+        batchPromise.execute(mExecutor);
+    }
+
+    private void rejectPending(Batch batch, Throwable thr) {
+        for (LoadPromise<ValueType> promise : batch.promises.values()) {
+            if (! promise.isFinished()) {
+                // Don't report the error again for each cancelled lookup
+                promise.reject(thr);
+            }
+        }
+    }
+
+
+    private class Batch {
+        final LinkedHashMap<KeyType, LoadPromise<ValueType>> promises =
+                new LinkedHashMap<KeyType, LoadPromise<ValueType>>();
+    }
+
+
+    private static class LoadPromise<ValueType> extends Promise<ValueType> {
+
+        LoadPromise() {
+            super(null, false);
+        }
+
+        @Override
+        protected void execute(Resolver<ValueType> resolver) {
+        }
+
+    }
+
+}
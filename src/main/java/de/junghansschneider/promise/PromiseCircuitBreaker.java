@@ -0,0 +1,330 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Protects callers from a degraded dependency: Once too many calls failed or were slow, the breaker opens and refuses
+ * calls with a rejected promise (reject cause {@link CircuitBreakerOpenException}) without calling the factory. All
+ * refused calls get the same promise, which doesn't report its rejection as an unhandled error - so refusing is cheap
+ * and an open breaker doesn't flood the log. Handlers attached to it are still called. After
+ * the open duration a few probe calls are let through (half-open). If they all succeed, the breaker closes again,
+ * otherwise it opens again. Probes which don't settle within the probe timeout count as failed.
+ *
+ * The outcomes of the last calls are kept in a lock-free sliding window. The rates are only checked once the window is
+ * full.
+ */
+public class PromiseCircuitBreaker {
+
+    public static enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int OUTCOME_RECORDED = 1;
+    private static final int OUTCOME_FAILURE = 2;
+    private static final int OUTCOME_SLOW = 4;
+
+    /** Runs the outcome handler in the thread settling the promise, so the call duration is exact. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final int mWindowSize;
+    private final float mFailureRateThreshold;
+    private final float mSlowCallRateThreshold;
+    private final long mSlowCallDurationNanos;
+    private final long mOpenDurationNanos;
+    private final int mHalfOpenCallCount;
+    private final long mProbeTimeoutNanos;
+
+    /** The current phase. Every state change installs a new phase, so its counters can't mix with another one's. */
+    private final AtomicReference<Phase> mPhase;
+    /** The promise returned for all refused calls */
+    private final Promise<Object> mRefusedPromise;
+
+
+    /**
+     * Creates a circuit breaker only watching failures.
+     *
+     * @param windowSize the number of recent calls to calculate the failure rate from
+     * @param failureRateThreshold the failure rate (0 to 1) at which the breaker opens
+     * @param openDurationMillis how long the breaker stays open before probing in milliseconds
+     */
+    public PromiseCircuitBreaker(int windowSize, float failureRateThreshold, long openDurationMillis) {
+        this(windowSize, failureRateThreshold, 1, Long.MAX_VALUE, openDurationMillis, 1);
+    }
+
+    /**
+     * Creates a circuit breaker using the open duration as probe timeout.
+     *
+     * @param windowSize the number of recent calls to calculate the rates from
+     * @param failureRateThreshold the failure rate (0 to 1) at which the breaker opens
+     * @param slowCallRateThreshold the slow call rate (0 to 1) at which the breaker opens
+     * @param slowCallDurationMillis the duration from which on a call counts as slow in milliseconds
+     * @param openDurationMillis how long the breaker stays open before probing in milliseconds
+     * @param halfOpenCallCount the number of probe calls which must succeed to close the breaker again
+     */
+    public PromiseCircuitBreaker(int windowSize, float failureRateThreshold, float slowCallRateThreshold,
+            long slowCallDurationMillis, long openDurationMillis, int halfOpenCallCount)
+    {
+        this(windowSize, failureRateThreshold, slowCallRateThreshold, slowCallDurationMillis, openDurationMillis,
+                halfOpenCallCount, openDurationMillis);
+    }
+
+    /**
+     * @param windowSize the number of recent calls to calculate the rates from
+     * @param failureRateThreshold the failure rate (0 to 1) at which the breaker opens
+     * @param slowCallRateThreshold the slow call rate (0 to 1) at which the breaker opens
+     * @param slowCallDurationMillis the duration from which on a call counts as slow in milliseconds
+     * @param openDurationMillis how long the breaker stays open before probing in milliseconds
+     * @param halfOpenCallCount the number of probe calls which must succeed to close the breaker again
+     * @param probeTimeoutMillis how long to wait for the probes in milliseconds. If they didn't all settle by then,
+     *        the breaker opens again.
+     */
+    public PromiseCircuitBreaker(int windowSize, float failureRateThreshold, float slowCallRateThreshold,
+            long slowCallDurationMillis, long openDurationMillis, int halfOpenCallCount, long probeTimeoutMillis)
+    {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        if (! (failureRateThreshold >= 0 && failureRateThreshold <= 1)) {
+            throw new IllegalArgumentException("failureRateThreshold must be between 0 and 1");
+        }
+        if (! (slowCallRateThreshold >= 0 && slowCallRateThreshold <= 1)) {
+            throw new IllegalArgumentException("slowCallRateThreshold must be between 0 and 1");
+        }
+        if (slowCallDurationMillis < 0) {
+            throw new IllegalArgumentException("slowCallDurationMillis must not be negative");
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("openDurationMillis must not be negative");
+        }
+        if (halfOpenCallCount < 1) {
+            throw new IllegalArgumentException("halfOpenCallCount must be at least 1");
+        }
+        if (probeTimeoutMillis < 0) {
+            throw new IllegalArgumentException("probeTimeoutMillis must not be negative");
+        }
+
+        mWindowSize = windowSize;
+        mFailureRateThreshold = failureRateThreshold;
+        mSlowCallRateThreshold = slowCallRateThreshold;
+        mSlowCallDurationNanos = (slowCallDurationMillis == Long.MAX_VALUE)
+                ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowCallDurationMillis);
+        mOpenDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        mHalfOpenCallCount = halfOpenCallCount;
+        mProbeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(probeTimeoutMillis);
+        mPhase = new AtomicReference<Phase>(Phase.closed(windowSize));
+
+        mRefusedPromise = new Promise<Object>(null, false) {
+            @Override
+            protected void execute(Resolver<Object> resolver) {
+            }
+        };
+        // Refusing calls is what an open breaker is for -> Don't report it as an unhandled error
+        mRefusedPromise.onError(DIRECT_EXECUTOR, new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+            }
+        });
+        mRefusedPromise.reject(new CircuitBreakerOpenException("Circuit breaker is open", false));
+    }
+
+    public State getState() {
+        return mPhase.get().state;
+    }
+
+    /**
+     * Calls a factory unless the breaker is open.
+     *
+     * @param factory the factory creating the protected promise
+     * @return the factory's promise - or a shared promise rejected with a {@link CircuitBreakerOpenException} if the
+     *         breaker is open
+     */
+    public <ValueType> Promise<ValueType> call(PromiseFactory<ValueType> factory) {
+        if (factory == null) {
+            throw new NullPointerException("factory is null");
+        }
+
+        final Phase phase = acquirePermission();
+        if (phase == null) {
+            return getRefusedPromise();
+        }
+
+        final long startTime = System.nanoTime();
+        final Promise<ValueType> promise;
+        try {
+            promise = factory.create();
+        } catch (Throwable thr) {
+            onCallFinished(phase, true, System.nanoTime() - startTime);
+            return Promise.rejectedPromise(null, thr);
+        }
+
+        promise.always(DIRECT_EXECUTOR, new Runnable() {
+            @Override
+            public void run() {
+                // A cancelled call says nothing about the dependency's health
+                if (! promise.isCancelled()) {
+                    onCallFinished(phase, promise.getState() == Promise.State.REJECTED,
+                            System.nanoTime() - startTime);
+                } else if (phase.state == State.HALF_OPEN) {
+                    phase.permits.incrementAndGet();
+                }
+            }
+        });
+        return promise;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <ValueType> Promise<ValueType> getRefusedPromise() {
+        // The promise never has a value, so it fits any value type
+        return (Promise<ValueType>) (Promise<?>) mRefusedPromise;
+    }
+
+    /**
+     * Decides whether a call may pass.
+     *
+     * @return the phase the call passes in (CLOSED or HALF_OPEN) - or null if it's refused
+     */
+    private Phase acquirePermission() {
+        while (true) {
+            Phase phase = mPhase.get();
+            if (phase.state == State.CLOSED) {
+                return phase;
+            }
+
+            long now = System.nanoTime();
+            if (phase.state == State.OPEN) {
+                if (now - phase.startTime < mOpenDurationNanos) {
+                    return null;
+                }
+                // The new phase brings its own permits, so only the thread winning the switch sets them up
+                mPhase.compareAndSet(phase, Phase.halfOpen(now, mHalfOpenCallCount));
+            } else {
+                int permits = phase.permits.get();
+                if (permits > 0) {
+                    if (phase.permits.compareAndSet(permits, permits - 1)) {
+                        return phase;
+                    }
+                } else if (now - phase.startTime >= mProbeTimeoutNanos) {
+                    // The probes didn't settle in time -> Count them as failed
+                    mPhase.compareAndSet(phase, Phase.open(now));
+                } else {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private void onCallFinished(Phase phase, boolean failed, long durationNanos) {
+        boolean slow = durationNanos >= mSlowCallDurationNanos;
+
+        // Outcomes of calls started in an earlier phase are ignored
+        if (phase.state == State.HALF_OPEN) {
+            if (failed || slow) {
+                mPhase.compareAndSet(phase, Phase.open(System.nanoTime()));
+            } else if (phase.successes.incrementAndGet() >= mHalfOpenCallCount) {
+                mPhase.compareAndSet(phase, Phase.closed(mWindowSize));
+            }
+        } else if (mPhase.get() == phase) {
+            SlidingWindow window = phase.window;
+            window.record(OUTCOME_RECORDED | (failed ? OUTCOME_FAILURE : 0) | (slow ? OUTCOME_SLOW : 0));
+            if (window.isFull()
+                    && (window.getRate(window.mFailureCount) >= mFailureRateThreshold
+                        || window.getRate(window.mSlowCount) >= mSlowCallRateThreshold))
+            {
+                mPhase.compareAndSet(phase, Phase.open(System.nanoTime()));
+            }
+        }
+    }
+
+
+    /**
+     * One period in a state. Its fields are set up before it's installed, so they are never seen half initialized.
+     */
+    private static class Phase {
+
+        final State state;
+        final long startTime;
+        /** CLOSED only: The outcomes of the recent calls */
+        final SlidingWindow window;
+        /** HALF_OPEN only: The number of probes which may still pass */
+        final AtomicInteger permits;
+        /** HALF_OPEN only: The number of probes which succeeded */
+        final AtomicInteger successes;
+
+        private Phase(State state, long startTime, SlidingWindow window, int permits) {
+            this.state = state;
+            this.startTime = startTime;
+            this.window = window;
+            this.permits = (state == State.HALF_OPEN) ? new AtomicInteger(permits) : null;
+            this.successes = (state == State.HALF_OPEN) ? new AtomicInteger() : null;
+        }
+
+        static Phase closed(int windowSize) {
+            return new Phase(State.CLOSED, System.nanoTime(), new SlidingWindow(windowSize), 0);
+        }
+
+        static Phase open(long startTime) {
+            return new Phase(State.OPEN, startTime, null, 0);
+        }
+
+        static Phase halfOpen(long startTime, int permits) {
+            return new Phase(State.HALF_OPEN, startTime, null, permits);
+        }
+
+    }
+
+
+    /**
+     * The outcomes of the last calls in a ring buffer. The counters are updated with the delta of each replaced
+     * outcome, so they are never more than a few concurrent calls off.
+     */
+    private static class SlidingWindow {
+
+        private final AtomicIntegerArray mOutcomes;
+        private final AtomicLong mNextIndex = new AtomicLong();
+        final AtomicInteger mCallCount = new AtomicInteger();
+        final AtomicInteger mFailureCount = new AtomicInteger();
+        final AtomicInteger mSlowCount = new AtomicInteger();
+
+        SlidingWindow(int size) {
+            mOutcomes = new AtomicIntegerArray(size);
+        }
+
+        void record(int outcome) {
+            int slot = (int) (mNextIndex.getAndIncrement() % mOutcomes.length());
+            int oldOutcome = mOutcomes.getAndSet(slot, outcome);
+            update(mCallCount, oldOutcome, outcome, OUTCOME_RECORDED);
+            update(mFailureCount, oldOutcome, outcome, OUTCOME_FAILURE);
+            update(mSlowCount, oldOutcome, outcome, OUTCOME_SLOW);
+        }
+
+        private static void update(AtomicInteger counter, int oldOutcome, int newOutcome, int flag) {
+            int delta = ((newOutcome & flag) != 0 ? 1 : 0) - ((oldOutcome & flag) != 0 ? 1 : 0);
+            if (delta != 0) {
+                counter.addAndGet(delta);
+            }
+        }
+
+        boolean isFull() {
+            return mCallCount.get() >= mOutcomes.length();
+        }
+
+        float getRate(AtomicInteger counter) {
+            return (float) counter.get() / mOutcomes.length();
+        }
+
+    }
+
+}
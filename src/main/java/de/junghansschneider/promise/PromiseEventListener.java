@@ -0,0 +1,74 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+/**
+ * Gets notified about the lifecycle of all promises, e.g. to feed a profiler (see
+ * {@link de.junghansschneider.promise.jfr.PromiseFlightRecorder}). Set it with
+ * {@link Promise#setEventListener(PromiseEventListener)}.
+ *
+ * The methods are called synchronously by the threads doing the work, so they must be fast and must not throw.
+ * Methods reporting the start of something return a context object which is passed to the matching finish method.
+ */
+public interface PromiseEventListener {
+
+    /**
+     * Called when a promise starts executing.
+     *
+     * @param promise the promise
+     * @return the context to pass to {@link #onExecuteFinished(Promise, Object)}
+     */
+    Object onExecuteStarted(Promise<?> promise);
+
+    void onExecuteFinished(Promise<?> promise, Object context);
+
+    /**
+     * Called when a handler of a settled promise is passed to its executor.
+     *
+     * @param promise the promise
+     * @param handler the handler as passed by the caller (e.g. the handler passed to <code>then</code>)
+     * @return the context to pass to {@link #onHandlerFinished(Promise, Object, long)}
+     */
+    Object onHandlerDispatched(Promise<?> promise, Object handler);
+
+    /**
+     * Called when a handler has finished.
+     *
+     * @param promise the promise
+     * @param context the context returned by {@link #onHandlerDispatched(Promise, Object)}
+     * @param queueDelayNanos the time the handler waited for its executor in nanoseconds
+     */
+    void onHandlerFinished(Promise<?> promise, Object context, long queueDelayNanos);
+
+    void onSettled(Promise<?> promise);
+
+    /**
+     * Called when a promise was rejected, but has no error handler. Cancelled promises are not reported.
+     *
+     * @param promise the promise
+     * @param thr the reject cause
+     */
+    void onUnhandledRejection(Promise<?> promise, Throwable thr);
+
+    /**
+     * Called when a promise is about to be cancelled.
+     *
+     * @param promise the promise
+     * @return the context to pass to {@link #onCancelFinished(Promise, Object, int)}
+     */
+    Object onCancelStarted(Promise<?> promise);
+
+    /**
+     * Called when cancelling a promise has finished.
+     *
+     * @param promise the promise
+     * @param context the context returned by {@link #onCancelStarted(Promise)}
+     * @param cancelledCount the number of promises cancelled (including ancestors cancelled by
+     *        <code>cancel(true)</code>). This is 0 if the promise was already settled.
+     */
+    void onCancelFinished(Promise<?> promise, Object context, int cancelledCount);
+
+}
@@ -0,0 +1,234 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single threaded executor tailored to the many small tasks promises submit (e.g. for calling handlers). Tasks run
+ * in submission order per submitting thread, like in a UI event loop.
+ *
+ * Other threads submit tasks to a lock-free multi-producer single-consumer queue made of array chunks, so a task
+ * costs no lock and (mostly) no allocation. Tasks submitted by the loop thread itself go to a plain local queue.
+ * The loop runs tasks in batches, spins for a while when idle and finally parks until new tasks arrive.
+ *
+ * The loop thread is a daemon thread, so it doesn't keep the VM alive.
+ */
+public class PromiseEventLoop implements Executor {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** The number of queued tasks to run before checking the local queue again. */
+    private static final int BATCH_SIZE = 256;
+    /** The number of empty polls before the loop thread parks. */
+    private static final int IDLE_SPIN_COUNT = 100;
+
+    private final Thread mThread;
+    private final ArrayDeque<Runnable> mLocalTasks = new ArrayDeque<Runnable>();
+
+    private final AtomicLong mProducerIndex = new AtomicLong();
+    private final AtomicReference<Chunk> mProducerChunk;
+    private long mConsumerIndex;
+    private Chunk mConsumerChunk;
+
+    private final AtomicBoolean mParked = new AtomicBoolean();
+    private volatile boolean mShutdown;
+
+
+    public PromiseEventLoop() {
+        this("promise-event-loop");
+    }
+
+    public PromiseEventLoop(String threadName) {
+        Chunk firstChunk = new Chunk(0);
+        mProducerChunk = new AtomicReference<Chunk>(firstChunk);
+        mConsumerChunk = firstChunk;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, threadName);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public boolean isLoopThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException("command is null");
+        }
+        if (mShutdown) {
+            throw new RejectedExecutionException("Event loop is shut down");
+        }
+
+        if (Thread.currentThread() == mThread) {
+            // Fast path: The loop thread is the only one touching the local queue
+            mLocalTasks.add(command);
+        } else {
+            offer(command);
+            if (mParked.get() && mParked.compareAndSet(true, false)) {
+                LockSupport.unpark(mThread);
+            }
+        }
+    }
+
+    /**
+     * Shuts the event loop down. Tasks submitted before are still run, new tasks are rejected.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        LockSupport.unpark(mThread);
+    }
+
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    /**
+     * Waits until the loop thread has terminated after {@link #shutdown()}.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return whether the loop thread has terminated
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        mThread.join(timeoutMillis);
+        return ! mThread.isAlive();
+    }
+
+    private void offer(Runnable command) {
+        // Read the chunk hint before claiming the index. The hint is only advanced by producers having a smaller
+        // index, so it can't be behind our index's chunk.
+        Chunk chunk = mProducerChunk.get();
+        long index = mProducerIndex.getAndIncrement();
+        long chunkId = index >>> CHUNK_SHIFT;
+
+        while (chunk.id < chunkId) {
+            Chunk next = chunk.next.get();
+            if (next == null) {
+                Chunk newChunk = new Chunk(chunk.id + 1);
+                if (chunk.next.compareAndSet(null, newChunk)) {
+                    next = newChunk;
+                } else {
+                    next = chunk.next.get();
+                }
+            }
+            chunk = next;
+        }
+
+        Chunk hint = mProducerChunk.get();
+        if (hint.id < chunk.id) {
+            mProducerChunk.compareAndSet(hint, chunk);
+        }
+
+        chunk.tasks.lazySet((int) (index & CHUNK_MASK), command);
+    }
+
+    /**
+     * Removes the next task of the shared queue. Must only be called by the loop thread.
+     *
+     * @return the next task - or null if the queue is empty
+     */
+    private Runnable poll() {
+        if (mConsumerIndex >= mProducerIndex.get()) {
+            return null;
+        }
+
+        int offset = (int) (mConsumerIndex & CHUNK_MASK);
+        if (offset == 0 && mConsumerChunk.id < (mConsumerIndex >>> CHUNK_SHIFT)) {
+            Chunk next;
+            while ((next = mConsumerChunk.next.get()) == null) {
+                // The producer of the index is still appending the chunk
+                Thread.yield();
+            }
+            mConsumerChunk = next;
+        }
+
+        Runnable task;
+        while ((task = mConsumerChunk.tasks.get(offset)) == null) {
+            // The index was claimed, but its producer didn't store the task yet
+            Thread.yield();
+        }
+        mConsumerChunk.tasks.lazySet(offset, null);
+        mConsumerIndex++;
+        return task;
+    }
+
+    private void runLoop() {
+        int idleCount = 0;
+        while (true) {
+            boolean didWork = false;
+
+            // Only run the local tasks there are now, so a self-submitting task can't starve the shared queue
+            for (int i = mLocalTasks.size(); i > 0; i--) {
+                runTask(mLocalTasks.poll());
+                didWork = true;
+            }
+
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = poll();
+                if (task == null) {
+                    break;
+                }
+                runTask(task);
+                didWork = true;
+            }
+
+            if (didWork) {
+                idleCount = 0;
+            } else if (mShutdown) {
+                return;
+            } else if (idleCount < IDLE_SPIN_COUNT) {
+                idleCount++;
+                Thread.yield();
+            } else {
+                mParked.set(true);
+                // Check again after announcing that we park, so we don't miss a task offered meanwhile
+                if (mConsumerIndex >= mProducerIndex.get() && !mShutdown) {
+                    LockSupport.park(this);
+                }
+                mParked.set(false);
+                Thread.interrupted();
+                idleCount = 0;
+            }
+        }
+    }
+
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable thr) {
+            Promise.onFallbackError("Running task of event loop failed", thr);
+        }
+    }
+
+
+    private static class Chunk {
+        final long id;
+        final AtomicReferenceArray<Runnable> tasks = new AtomicReferenceArray<Runnable>(CHUNK_SIZE);
+        final AtomicReference<Chunk> next = new AtomicReference<Chunk>();
+
+        Chunk(long id) {
+            this.id = id;
+        }
+    }
+
+}
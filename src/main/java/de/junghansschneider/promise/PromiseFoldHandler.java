@@ -0,0 +1,12 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+public interface PromiseFoldHandler<AccumulatorType, ItemType> {
+
+    Promise<AccumulatorType> onItem(AccumulatorType accumulator, ItemType item) throws Throwable;
+
+}
@@ -0,0 +1,53 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An executor running promises as tasks of a {@link ForkJoinPool}.
+ *
+ * Promises created by a worker of the pool (e.g. child promises created in <code>execute(Resolver)</code>) are forked
+ * to the worker's local queue. If a worker waits for such a promise (e.g. using <code>waitForResult</code> or
+ * <code>join</code>), it joins the promise's task and so executes or steals queued work instead of idling. If there is
+ * nothing to help with, the worker blocks as a managed blocker, so the pool can compensate with a spare thread.
+ */
+public class PromiseForkJoinExecutor implements Executor {
+
+    private final ForkJoinPool mPool;
+
+
+    public PromiseForkJoinExecutor() {
+        this(new ForkJoinPool());
+    }
+
+    public PromiseForkJoinExecutor(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool is null");
+        }
+        mPool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return mPool;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        fork(ForkJoinTask.adapt(command));
+    }
+
+    void fork(ForkJoinTask<?> task) {
+        if (ForkJoinTask.getPool() == mPool) {
+            task.fork();
+        } else {
+            mPool.execute(task);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor running pending work by priority, so latency critical promises don't queue up behind background work.
+ * Promises pass their priority (see {@link Promise#setPriority(int)}) for executing them and for calling their
+ * handlers. Plain <code>execute(Runnable)</code> calls get priority 0.
+ *
+ * To prevent starvation, waiting tasks age: a task waiting for the aging interval ranks like a task one priority
+ * higher. Since all tasks age at the same rate, this boils down to a static order: a task ranks by its enqueue time
+ * minus its priority times the aging interval.
+ *
+ * The worker threads are daemon threads, so they don't keep the VM alive.
+ */
+public class PromisePriorityExecutor implements Executor {
+
+    private final long mAgingNanos;
+    private final Thread[] mWorkers;
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<Task>();
+    private long mNextSequence;
+    private boolean mShutdown;
+
+
+    /**
+     * @param threadCount the number of worker threads
+     * @param agingMillis the waiting time after which a task ranks one priority higher in milliseconds
+     */
+    public PromisePriorityExecutor(int threadCount, long agingMillis) {
+        this(threadCount, agingMillis, "promise-priority-executor");
+    }
+
+    /**
+     * @param threadCount the number of worker threads
+     * @param agingMillis the waiting time after which a task ranks one priority higher in milliseconds
+     * @param threadName the name prefix of the worker threads
+     */
+    public PromisePriorityExecutor(int threadCount, long agingMillis, String threadName) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        if (agingMillis < 1) {
+            throw new IllegalArgumentException("agingMillis must be at least 1");
+        }
+
+        mAgingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        mWorkers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, threadName + "-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, 0);
+    }
+
+    /**
+     * Executes a task with a priority.
+     *
+     * @param command the task to execute
+     * @param priority the priority. Higher priorities are run first.
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException("command is null");
+        }
+
+        long rank = System.nanoTime() - priority * mAgingNanos;
+        synchronized(mQueue) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            mQueue.add(new Task(command, rank, mNextSequence++));
+            mQueue.notify();
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting for a worker.
+     *
+     * @return the number of waiting tasks
+     */
+    public int getQueueLength() {
+        synchronized(mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * Shuts the executor down. Tasks submitted before are still run, new tasks are rejected.
+     */
+    public void shutdown() {
+        synchronized(mQueue) {
+            mShutdown = true;
+            mQueue.notifyAll();
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized(mQueue) {
+            return mShutdown;
+        }
+    }
+
+    /**
+     * Waits until all worker threads have terminated after {@link #shutdown()}.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return whether all worker threads have terminated
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread worker : mWorkers) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                break;
+            }
+            worker.join(remainingMillis);
+        }
+
+        for (Thread worker : mWorkers) {
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            synchronized(mQueue) {
+                while (mQueue.isEmpty()) {
+                    if (mShutdown) {
+                        return;
+                    }
+                    try {
+                        mQueue.wait();
+                    } catch (InterruptedException exc) {
+                        // Workers only stop on shutdown
+                    }
+                }
+                task = mQueue.poll();
+            }
+
+            try {
+                task.command.run();
+            } catch (Throwable thr) {
+                Promise.onFallbackError("Running task of priority executor failed", thr);
+            }
+        }
+    }
+
+
+    private static class Task implements Comparable<Task> {
+        final Runnable command;
+        final long rank;
+        final long sequence;
+
+        Task(Runnable command, long rank, long sequence) {
+            this.command = command;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            // Compare the difference, so nanoTime overflows don't matter
+            long diff = rank - other.rank;
+            if (diff != 0) {
+                return (diff < 0) ? -1 : 1;
+            }
+            return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which promises are created using a token bucket.
+ *
+ * {@link #throttle(PromiseFactory)} returns a promise right away. The factory is called as soon as a token is
+ * available - no thread waits for it meanwhile. Waiting calls are granted in FIFO order by a timer task on a shared
+ * scheduler. Cancelling a returned promise removes it from the queue.
+ */
+public class PromiseRateLimiter {
+
+    private final double mPermitsPerNano;
+    private final int mBurst;
+    private final ScheduledExecutorService mScheduler;
+    private final Executor mExecutor;
+
+    private final ArrayDeque<ThrottledPromise<?>> mQueue = new ArrayDeque<ThrottledPromise<?>>();
+    private double mTokens;
+    private long mLastRefillTime;
+    private boolean mTimerScheduled;
+
+
+    /**
+     * @param permitsPerSecond the number of factory calls per second in the long run
+     * @param burst the maximum number of factory calls at once after the limiter was idle
+     */
+    public PromiseRateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, null, null);
+    }
+
+    /**
+     * @param permitsPerSecond the number of factory calls per second in the long run
+     * @param burst the maximum number of factory calls at once after the limiter was idle
+     * @param scheduler the scheduler for the timer task. If null, the default scheduler is used.
+     * @param executor the executor to call the factories in. If null, the default executor is used.
+     */
+    public PromiseRateLimiter(double permitsPerSecond, int burst, ScheduledExecutorService scheduler,
+            Executor executor)
+    {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+
+        mPermitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        mBurst = burst;
+        mScheduler = (scheduler == null) ? Promise.getDefaultScheduler() : scheduler;
+        mExecutor = executor;
+        mTokens = burst;
+        mLastRefillTime = System.nanoTime();
+    }
+
+    /**
+     * Calls a factory as soon as the rate limit allows it.
+     *
+     * @param factory the factory creating the actual promise
+     * @return a promise settled like the factory's promise
+     */
+    public <ValueType> Promise<ValueType> throttle(PromiseFactory<ValueType> factory) {
+        if (factory == null) {
+            throw new NullPointerException("factory is null");
+        }
+
+        final ThrottledPromise<ValueType> promise = new ThrottledPromise<ValueType>(factory);
+        boolean grantNow;
+        synchronized(this) {
+            refill();
+            grantNow = mQueue.isEmpty() && mTokens >= 1;
+            if (grantNow) {
+                mTokens -= 1;
+            } else {
+                mQueue.add(promise);
+                scheduleTimer();
+            }
+        }
+
+        if (grantNow) {
+            promise.execute(mExecutor);
+        } else {
+            promise.onCancel(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(PromiseRateLimiter.this) {
+                        mQueue.remove(promise);
+                    }
+                }
+            });
+        }
+        return promise;
+    }
+
+    /**
+     * Returns the number of calls waiting for a token.
+     *
+     * @return the number of waiting calls
+     */
+    public synchronized int getQueueLength() {
+        return mQueue.size();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        mTokens = Math.min(mBurst, mTokens + (now - mLastRefillTime) * mPermitsPerNano);
+        mLastRefillTime = now;
+    }
+
+    private void scheduleTimer() {
+        if (mTimerScheduled || mQueue.isEmpty()) {
+            return;
+        }
+
+        long delayNanos = (long) Math.ceil((1 - mTokens) / mPermitsPerNano);
+        mTimerScheduled = true;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimer();
+            }
+        }, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private void onTimer() {
+        List<ThrottledPromise<?>> grantedPromises = new ArrayList<ThrottledPromise<?>>();
+        synchronized(this) {
+            mTimerScheduled = false;
+            refill();
+            while (mTokens >= 1 && ! mQueue.isEmpty()) {
+                ThrottledPromise<?> promise = mQueue.poll();
+                if (! promise.isFinished()) {
+                    mTokens -= 1;
+                    grantedPromises.add(promise);
+                }
+            }
+            scheduleTimer();
+        }
+
+        for (ThrottledPromise<?> promise : grantedPromises) {
+            promise.execute(mExecutor);
+        }
+    }
+
+
+    private static class ThrottledPromise<ValueType> extends Promise<ValueType> {
+
+        private final PromiseFactory<ValueType> mFactory;
+
+        ThrottledPromise(PromiseFactory<ValueType> factory) {
+            super(null, false);
+            mFactory = factory;
+        }
+
+        @Override
+        protected void execute(Resolver<ValueType> resolver) {
+            try {
+                resolver.resolve(mFactory.create());
+            } catch (Throwable thr) {
+                resolver.reject(thr);
+            }
+        }
+
+    }
+
+}
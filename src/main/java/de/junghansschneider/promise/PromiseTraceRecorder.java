@@ -0,0 +1,550 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records when promises are created, start executing and settle, together with their ancestor links (the promises
+ * they were chained to by <code>then</code>, <code>all</code> or by resolving with another promise). For a settled
+ * root promise, the recorder finds the critical path - the chain of promises which actually determined when the root
+ * settled - and the slack of all other promises in its graph.
+ *
+ * Recording is opt-in: it starts with <code>Promise.setTraceRecorder(recorder)</code> and affects only promises
+ * created afterwards. Without a recorder, promises pay nothing but a volatile read when they are created or chained.
+ */
+public class PromiseTraceRecorder {
+
+    /** The stage executing or running its then handler on the current thread */
+    private static final ThreadLocal<Stage> mRunningStage = new ThreadLocal<Stage>();
+
+    private final AtomicLong mNextId = new AtomicLong(1);
+
+
+    /**
+     * Sets the name of a promise shown in the analysis, so the branches of a graph can be told apart.
+     * Does nothing if the promise isn't recorded.
+     *
+     * @param promise the promise to name
+     * @param name the name
+     */
+    public static void setName(Promise<?> promise, String name) {
+        Stage stage = promise.getTraceStage();
+        if (stage != null) {
+            stage.setName(name);
+        }
+    }
+
+    Stage createStage(Promise<?> promise) {
+        String name = promise.getClass().getName();
+        name = name.substring(name.lastIndexOf('.') + 1);
+        return new Stage(mNextId.getAndIncrement(), name, System.nanoTime(), mRunningStage.get());
+    }
+
+    /**
+     * Analyzes the graph of a settled promise.
+     *
+     * @param root the promise to analyze
+     * @return the critical path and the slack of all promises the root depends on
+     * @throws IllegalArgumentException if the promise wasn't recorded
+     * @throws IllegalStateException if the promise isn't settled yet
+     */
+    public CriticalPath analyze(Promise<?> root) {
+        Stage rootStage = root.getTraceStage();
+        if (rootStage == null) {
+            throw new IllegalArgumentException("Promise was not recorded");
+        }
+        if (! rootStage.isSettled()) {
+            throw new IllegalStateException("Promise is not settled yet");
+        }
+        return new CriticalPath(rootStage);
+    }
+
+    /**
+     * Writes the graph of a settled promise as a Chrome trace (to be opened with chrome://tracing or Perfetto).
+     * Every promise gets its own row. The promises on the critical path have the category "critical" and are linked by
+     * flow arrows. Promises which aren't settled yet (e.g. the other inputs of a rejected <code>all</code>) are drawn
+     * until the root settled and have the outcome "pending".
+     *
+     * @param root the promise to analyze
+     * @param file the file to write to
+     * @throws IOException if writing failed
+     */
+    public void writeChromeTrace(Promise<?> root, File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writeChromeTrace(root, out);
+        }
+    }
+
+    /**
+     * Writes the graph of a settled promise as a Chrome trace JSON.
+     *
+     * @param root the promise to analyze
+     * @param out the writer to write to
+     * @throws IOException if writing failed
+     */
+    public void writeChromeTrace(Promise<?> root, Writer out) throws IOException {
+        CriticalPath criticalPath = analyze(root);
+        List<Stage> stages = criticalPath.getAllStages();
+        long epoch = Long.MAX_VALUE;
+        for (Stage stage : stages) {
+            epoch = Math.min(epoch, stage.getCreatedNanos());
+        }
+        long rootSettledNanos = criticalPath.getRoot().getSettledNanos();
+
+        out.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (Stage stage : stages) {
+            boolean critical = criticalPath.isCritical(stage);
+            long slackNanos = criticalPath.getSlackNanos(stage);
+            long settledNanos = stage.getSettledNanos();
+            String outcome = stage.getOutcome();
+            if (! stage.isSettled()) {
+                // Draw the promise until the root settled - it may even have started after that
+                settledNanos = Math.max(rootSettledNanos, Math.max(stage.getCreatedNanos(), stage.getStartedNanos()));
+                outcome = "pending";
+            }
+
+            StringBuilder event = new StringBuilder(256);
+            event.append(first ? "\n" : ",\n");
+            event.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(stage.getId())
+                    .append(",\"args\":{\"name\":");
+            appendJsonString(event, "#" + stage.getId() + " " + stage.getName());
+            event.append("}},\n{\"name\":");
+            appendJsonString(event, stage.getName());
+            event.append(",\"cat\":\"").append(critical ? "critical" : "promise").append("\",\"ph\":\"X\",\"ts\":");
+            appendMicros(event, stage.getCreatedNanos() - epoch);
+            event.append(",\"dur\":");
+            appendMicros(event, settledNanos - stage.getCreatedNanos());
+            event.append(",\"pid\":1,\"tid\":").append(stage.getId());
+            event.append(",\"args\":{\"outcome\":\"").append(outcome).append('"');
+            if (slackNanos != Long.MAX_VALUE) {
+                event.append(",\"slackMicros\":");
+                appendMicros(event, slackNanos);
+            }
+            event.append(",\"ancestors\":[");
+            List<Stage> ancestors = stage.getAncestors();
+            for (int i = 0; i < ancestors.size(); i++) {
+                event.append((i == 0) ? "" : ",").append(ancestors.get(i).getId());
+            }
+            event.append("]}}");
+
+            if (stage.getStartedNanos() != -1) {
+                event.append(",\n{\"name\":\"executing\",\"cat\":\"promise\",\"ph\":\"X\",\"ts\":");
+                appendMicros(event, stage.getStartedNanos() - epoch);
+                event.append(",\"dur\":");
+                appendMicros(event, settledNanos - stage.getStartedNanos());
+                event.append(",\"pid\":1,\"tid\":").append(stage.getId()).append('}');
+            }
+
+            Stage predecessor = criticalPath.getCriticalPredecessor(stage);
+            if (predecessor != null) {
+                // A flow arrow from the settling of the critical predecessor to this promise
+                event.append(",\n{\"name\":\"critical\",\"cat\":\"critical\",\"ph\":\"s\",\"id\":").append(stage.getId())
+                        .append(",\"ts\":");
+                appendMicros(event, predecessor.getSettledNanos() - epoch);
+                event.append(",\"pid\":1,\"tid\":").append(predecessor.getId());
+                event.append("},\n{\"name\":\"critical\",\"cat\":\"critical\",\"ph\":\"f\",\"bp\":\"e\",\"id\":")
+                        .append(stage.getId()).append(",\"ts\":");
+                appendMicros(event, Math.max(predecessor.getSettledNanos(), stage.getCreatedNanos()) - epoch);
+                event.append(",\"pid\":1,\"tid\":").append(stage.getId()).append('}');
+            }
+
+            out.write(event.toString());
+            first = false;
+        }
+        out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        out.flush();
+    }
+
+    private static void appendMicros(StringBuilder sb, long nanos) {
+        sb.append(String.format(Locale.US, "%.3f", nanos / 1000.0));
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * The recorded lifecycle of one promise. All times are <code>System.nanoTime()</code> values.
+     */
+    public static final class Stage {
+
+        private final long mId;
+        private final long mCreatedNanos;
+        private final Stage mCreator;
+        private volatile String mName;
+        private volatile long mStartedNanos = -1;
+        private volatile long mSettledNanos = -1;
+        private volatile String mOutcome;
+        private final List<Stage> mAncestors = new ArrayList<Stage>(1);
+        /** The stage running before this one started on the same thread. Only used by the running thread. */
+        private Stage mPreviousRunningStage;
+
+        Stage(long id, String name, long createdNanos, Stage creator) {
+            mId = id;
+            mName = name;
+            mCreatedNanos = createdNanos;
+            mCreator = creator;
+        }
+
+        void setName(String name) {
+            mName = name;
+        }
+
+        void addAncestor(Stage ancestor) {
+            synchronized(mAncestors) {
+                mAncestors.add(ancestor);
+            }
+        }
+
+        /**
+         * Called when the promise starts executing or its <code>then</code> handler is called. Until
+         * {@link #stopped()} is called, new promises are recorded as created by this one.
+         */
+        void started() {
+            if (mStartedNanos == -1) {
+                mStartedNanos = System.nanoTime();
+            }
+            mPreviousRunningStage = mRunningStage.get();
+            mRunningStage.set(this);
+        }
+
+        void stopped() {
+            mRunningStage.set(mPreviousRunningStage);
+            mPreviousRunningStage = null;
+        }
+
+        void settled(String outcome) {
+            mOutcome = outcome;
+            mSettledNanos = System.nanoTime();
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCreatedNanos() {
+            return mCreatedNanos;
+        }
+
+        /**
+         * @return when the promise started executing or its <code>then</code> handler was called - or -1 if it never
+         *         did (e.g. for a Deferred or <code>all</code>)
+         */
+        public long getStartedNanos() {
+            return mStartedNanos;
+        }
+
+        /**
+         * @return when the promise settled - or -1 if it isn't settled yet
+         */
+        public long getSettledNanos() {
+            return mSettledNanos;
+        }
+
+        public boolean isSettled() {
+            return mSettledNanos != -1;
+        }
+
+        /**
+         * @return "resolved", "rejected" or "cancelled" - or null if the promise isn't settled yet
+         */
+        public String getOutcome() {
+            return mOutcome;
+        }
+
+        /**
+         * @return the promise which was executing or running its <code>then</code> handler on the same thread when
+         *         this promise was created - or null
+         */
+        public Stage getCreator() {
+            return mCreator;
+        }
+
+        public List<Stage> getAncestors() {
+            synchronized(mAncestors) {
+                return new ArrayList<Stage>(mAncestors);
+            }
+        }
+
+        /**
+         * Returns the ancestors this promise waited for before it started. For promises which are never started
+         * (like Deferreds or <code>all</code>), these are all ancestors which settled before this promise did.
+         */
+        List<Stage> getInputs() {
+            long limit = (mStartedNanos != -1) ? mStartedNanos : mSettledNanos;
+            List<Stage> result = new ArrayList<Stage>();
+            for (Stage ancestor : getAncestors()) {
+                if (ancestor.isSettled() && ancestor.mSettledNanos <= limit) {
+                    result.add(ancestor);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the ancestors this promise waited for after it started - the promises it was resolved with.
+         */
+        List<Stage> getResults() {
+            List<Stage> result = new ArrayList<Stage>();
+            if (mStartedNanos != -1) {
+                for (Stage ancestor : getAncestors()) {
+                    if (ancestor.isSettled() && ancestor.mSettledNanos > mStartedNanos
+                            && ancestor.mSettledNanos <= mSettledNanos)
+                    {
+                        result.add(ancestor);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns when this promise could start: when it was created and all its inputs had settled.
+         */
+        long getReadyNanos() {
+            long readyNanos = mCreatedNanos;
+            for (Stage input : getInputs()) {
+                readyNanos = Math.max(readyNanos, input.mSettledNanos);
+            }
+            return readyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + mId + " " + mName;
+        }
+    }
+
+
+    /**
+     * The critical path of a settled promise and the slack of all promises it depends on.
+     *
+     * A promise waits for its inputs (e.g. the parent of <code>then</code> or the promises passed to
+     * <code>all</code>) and then for its results (the promise a <code>then</code> handler returned). The input or
+     * result settling last is its critical predecessor. A result promise created by a handler continues with the
+     * inputs of the promise whose handler created it. Following the critical predecessors from the root gives the
+     * critical path: making any of these promises faster makes the root settle earlier.
+     *
+     * The slack of a promise tells how much later it could have settled without delaying the root.
+     */
+    public static final class CriticalPath {
+
+        private final Stage mRoot;
+        private final List<Stage> mAllStages;
+        private final List<Stage> mPath;
+        private final Set<Stage> mPathSet = Collections.newSetFromMap(new IdentityHashMap<Stage, Boolean>());
+        private final Map<Stage, Stage> mCriticalPredecessors = new IdentityHashMap<Stage, Stage>();
+        private final Map<Stage, Long> mLatestSettleNanos = new IdentityHashMap<Stage, Long>();
+
+
+        CriticalPath(Stage root) {
+            mRoot = root;
+            mAllStages = Collections.unmodifiableList(collectStages(root));
+
+            Set<Stage> graph = Collections.newSetFromMap(new IdentityHashMap<Stage, Boolean>());
+            graph.addAll(mAllStages);
+            for (Stage stage : mAllStages) {
+                Stage predecessor = findCriticalPredecessor(stage, graph);
+                if (predecessor != null) {
+                    mCriticalPredecessors.put(stage, predecessor);
+                }
+            }
+
+            List<Stage> path = new ArrayList<Stage>();
+            for (Stage stage = root; stage != null && mPathSet.add(stage); stage = mCriticalPredecessors.get(stage)) {
+                path.add(stage);
+            }
+            Collections.reverse(path);
+            mPath = Collections.unmodifiableList(path);
+
+            // Compute the latest settle times backwards from the root (children come after their ancestors)
+            mLatestSettleNanos.put(root, root.getSettledNanos());
+            for (int i = mAllStages.size() - 1; i >= 0; i--) {
+                Stage stage = mAllStages.get(i);
+                Long latestSettleNanos = mLatestSettleNanos.get(stage);
+                if (latestSettleNanos == null) {
+                    continue;
+                }
+                for (Stage result : stage.getResults()) {
+                    lowerLatestSettleNanos(result, latestSettleNanos);
+                }
+                long latestReadyNanos = latestSettleNanos - (stage.getSettledNanos() - stage.getReadyNanos());
+                for (Stage input : stage.getInputs()) {
+                    lowerLatestSettleNanos(input, latestReadyNanos);
+                }
+            }
+        }
+
+        private void lowerLatestSettleNanos(Stage stage, long latestSettleNanos) {
+            Long oldLatestSettleNanos = mLatestSettleNanos.get(stage);
+            if (oldLatestSettleNanos == null || latestSettleNanos < oldLatestSettleNanos) {
+                mLatestSettleNanos.put(stage, latestSettleNanos);
+            }
+        }
+
+        /**
+         * Collects the root and all its transitive ancestors, ancestors before their children.
+         */
+        private static List<Stage> collectStages(Stage root) {
+            List<Stage> stages = new ArrayList<Stage>();
+            Map<Stage, Boolean> visited = new IdentityHashMap<Stage, Boolean>();
+            Deque<Object[]> stack = new ArrayDeque<Object[]>();
+            visited.put(root, Boolean.TRUE);
+            stack.push(new Object[] { root, root.getAncestors().iterator() });
+            while (! stack.isEmpty()) {
+                Object[] frame = stack.peek();
+                @SuppressWarnings("unchecked")
+                Iterator<Stage> ancestors = (Iterator<Stage>) frame[1];
+                if (ancestors.hasNext()) {
+                    Stage ancestor = ancestors.next();
+                    if (visited.put(ancestor, Boolean.TRUE) == null) {
+                        stack.push(new Object[] { ancestor, ancestor.getAncestors().iterator() });
+                    }
+                } else {
+                    stack.pop();
+                    stages.add((Stage) frame[0]);
+                }
+            }
+            return stages;
+        }
+
+        private static Stage findCriticalPredecessor(Stage stage, Set<Stage> graph) {
+            Stage result = getLastSettled(stage.getResults());
+            if (result != null) {
+                return result;
+            }
+
+            Stage input = getLastSettled(stage.getInputs());
+            if (input != null && input.getSettledNanos() >= stage.getCreatedNanos()) {
+                return input;
+            }
+
+            // The stage didn't wait for anything -> It waited for its creator
+            for (Stage creator = stage.getCreator(); creator != null && graph.contains(creator);
+                    creator = creator.getCreator())
+            {
+                Stage creatorInput = getLastSettled(creator.getInputs());
+                if (creatorInput != null) {
+                    return creatorInput;
+                }
+            }
+
+            return input;
+        }
+
+        private static Stage getLastSettled(List<Stage> stages) {
+            Stage lastSettled = null;
+            for (Stage stage : stages) {
+                if (lastSettled == null || stage.getSettledNanos() > lastSettled.getSettledNanos()) {
+                    lastSettled = stage;
+                }
+            }
+            return lastSettled;
+        }
+
+        public Stage getRoot() {
+            return mRoot;
+        }
+
+        /**
+         * @return the promises on the critical path, beginning with the first and ending with the root
+         */
+        public List<Stage> getStages() {
+            return mPath;
+        }
+
+        /**
+         * @return the root and all promises it depends on, ancestors before their children
+         */
+        public List<Stage> getAllStages() {
+            return mAllStages;
+        }
+
+        public boolean isCritical(Stage stage) {
+            return mPathSet.contains(stage);
+        }
+
+        /**
+         * @return the input or result which settled last before the stage - or null if the stage didn't wait for
+         *         anything
+         */
+        public Stage getCriticalPredecessor(Stage stage) {
+            return mCriticalPredecessors.get(stage);
+        }
+
+        /**
+         * Returns the time from creating the first promise on the critical path until the root settled.
+         *
+         * @param unit the unit of the result
+         * @return the duration of the critical path
+         */
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(mRoot.getSettledNanos() - mPath.get(0).getCreatedNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns how much later a promise could have settled without delaying the root. This is 0 for the inputs on
+         * the critical path and close to 0 for its results (they settle just before the promise they resolve).
+         *
+         * @param stage the stage of the promise
+         * @return the slack in nanoseconds - or Long.MAX_VALUE if the promise couldn't delay the root at all (e.g. if
+         *         it settled after the root)
+         */
+        public long getSlackNanos(Stage stage) {
+            Long latestSettleNanos = mLatestSettleNanos.get(stage);
+            if (latestSettleNanos == null || ! stage.isSettled()) {
+                return Long.MAX_VALUE;
+            }
+            return Math.max(0, latestSettleNanos - stage.getSettledNanos());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Critical path (").append(getDuration(TimeUnit.MICROSECONDS)).append(" µs):");
+            for (Stage stage : mPath) {
+                sb.append("\n  ").append(stage).append(": ")
+                        .append(TimeUnit.NANOSECONDS.toMicros(stage.getSettledNanos() - stage.getReadyNanos()))
+                        .append(" µs");
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A deferred whose promise can be reused after it settled. Get one from a {@link DeferredPool} and give it back using
+ * {@link #release()}.
+ *
+ * The pooled promise of a recyclable deferred is never executed, so no Runnable or Resolver is created per use. Every
+ * use gets a small handle and a promise view, both stamped with the generation of the pooled promise: Using a handle
+ * after it was released throws an IllegalStateException, even if the pooled promise was handed out again meanwhile.
+ * Consumers only see the view, which settles together with the pooled promise and is never reused - so a consumer
+ * keeping the promise of an earlier use never gets the result of a later one.
+ */
+public class RecyclableDeferred<ValueType> extends Deferred<ValueType> {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final RecyclablePromise<ValueType> mPromise;
+    private final PromiseView<ValueType> mView;
+    private final int mGeneration;
+
+
+    RecyclableDeferred(RecyclablePromise<ValueType> promise) {
+        super(promise);
+        mPromise = promise;
+        mGeneration = promise.mGeneration;
+        mView = promise.createView(mGeneration);
+    }
+
+    /**
+     * Gives this deferred back to its pool. The promise must be settled and nobody may hold a reference to this
+     * deferred anymore. Consumers may keep the promise, it stays settled with the result of this use.
+     *
+     * May be called by a handler of the promise: The promise is only reset after all its handlers were dispatched.
+     */
+    public void release() {
+        mPromise.release(mGeneration);
+    }
+
+    public boolean isRecycled() {
+        return mPromise.mGeneration != mGeneration;
+    }
+
+    private void assertNotRecycled() {
+        if (isRecycled()) {
+            throw new IllegalStateException("Deferred was released to its pool");
+        }
+    }
+
+    @Override
+    public Promise<ValueType> getPromise() {
+        assertNotRecycled();
+        return mView;
+    }
+
+    /**
+     * Returns the pooled promise behind the view handed out by {@link #getPromise()}.
+     */
+    RecyclablePromise<ValueType> getRecyclablePromise() {
+        return mPromise;
+    }
+
+    @Override
+    public void resolve(ValueType value) {
+        assertNotRecycled();
+        super.resolve(value);
+    }
+
+    @Override
+    public void resolve(Promise<ValueType> valuePromise) {
+        assertNotRecycled();
+        super.resolve(valuePromise);
+    }
+
+    @Override
+    public void reject(Throwable thr) {
+        assertNotRecycled();
+        super.reject(thr);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        assertNotRecycled();
+        return super.isCancelled();
+    }
+
+    @Override
+    public void onCancel(Runnable handler) {
+        assertNotRecycled();
+        super.onCancel(handler);
+    }
+
+    @Override
+    public void setInterruptOnCancel(boolean interruptOnCancel) {
+        assertNotRecycled();
+        super.setInterruptOnCancel(interruptOnCancel);
+    }
+
+    @Override
+    public void notifyProgress(Object progress) {
+        assertNotRecycled();
+        super.notifyProgress(progress);
+    }
+
+    @Override
+    public long getRemainingNanos() {
+        assertNotRecycled();
+        // Consumers set the deadline on the view
+        return mView.getRemainingNanos();
+    }
+
+
+    /**
+     * The pooled part of a recyclable deferred.
+     */
+    static class RecyclablePromise<ValueType> extends Promise<ValueType> {
+
+        private final DeferredPool<ValueType> mPool;
+        /** Incremented on release, so the handles of earlier uses become stale */
+        volatile int mGeneration;
+        /** The number of settle calls running on this promise. Guarded by the promise's lock. */
+        private int mSettlingCount;
+        private boolean mResetPending;
+
+
+        RecyclablePromise(DeferredPool<ValueType> pool) {
+            super(null, false);
+            mPool = pool;
+        }
+
+        @Override
+        protected void execute(Resolver<ValueType> resolver) {
+        }
+
+        void release(int generation) {
+            synchronized(this) {
+                if (generation != mGeneration) {
+                    throw new IllegalStateException("Deferred was released to its pool");
+                }
+                if (! isFinished()) {
+                    throw new IllegalStateException("Only deferreds having a settled promise can be released");
+                }
+                mGeneration = generation + 1;
+                if (mSettlingCount > 0) {
+                    // Handlers are still being dispatched -> Reset when the settle call is done
+                    mResetPending = true;
+                    return;
+                }
+            }
+            recycle();
+        }
+
+        PromiseView<ValueType> createView(int generation) {
+            PromiseView<ValueType> view = new PromiseView<ValueType>(this, generation);
+            // Settle the view right within the settle bracket, so a handler of the view may release the deferred
+            forwardTo(DIRECT_EXECUTOR, view);
+            return view;
+        }
+
+        /**
+         * Cancels this promise on behalf of a view - unless the view belongs to an earlier use.
+         */
+        void cancel(int generation, boolean wholeChain) {
+            synchronized(this) {
+                if (generation != mGeneration) {
+                    return;
+                }
+            }
+            cancel(wholeChain);
+        }
+
+        private void recycle() {
+            reset();
+            mPool.release(this);
+        }
+
+        private void onSettleStarted() {
+            synchronized(this) {
+                mSettlingCount++;
+            }
+        }
+
+        private void onSettleFinished() {
+            boolean recycle;
+            synchronized(this) {
+                mSettlingCount--;
+                recycle = mResetPending && mSettlingCount == 0;
+                if (recycle) {
+                    mResetPending = false;
+                }
+            }
+            if (recycle) {
+                recycle();
+            }
+        }
+
+        // All paths settling this promise are bracketed, so a handler calling release() can't reset it in the middle
+        // of dispatching
+
+        @Override
+        protected void resolve(ValueType value) {
+            onSettleStarted();
+            try {
+                super.resolve(value);
+            } finally {
+                onSettleFinished();
+            }
+        }
+
+        @Override
+        protected void reject(Throwable thr) {
+            onSettleStarted();
+            try {
+                super.reject(thr);
+            } finally {
+                onSettleFinished();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean wholeChain) {
+            onSettleStarted();
+            try {
+                return super.cancel(wholeChain);
+            } finally {
+                onSettleFinished();
+            }
+        }
+
+        @Override
+        protected void fireFinished() {
+            // Covers the promise being cancelled as an ancestor of a cancelled child
+            onSettleStarted();
+            try {
+                super.fireFinished();
+            } finally {
+                onSettleFinished();
+            }
+        }
+
+    }
+
+
+    /**
+     * The promise of one use of a recyclable deferred. The pooled promise forwards its result (and progress) to it, and
+     * cancelling it cancels the pooled promise - unless the pooled promise is already used again.
+     */
+    static class PromiseView<ValueType> extends Promise<ValueType> {
+
+        private final RecyclablePromise<ValueType> mSource;
+        private final int mGeneration;
+
+
+        PromiseView(RecyclablePromise<ValueType> source, int generation) {
+            super(null, false);
+            mSource = source;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected void execute(Resolver<ValueType> resolver) {
+        }
+
+        @Override
+        public boolean cancel(boolean wholeChain) {
+            if (! super.cancel(wholeChain)) {
+                return false;
+            }
+            mSource.cancel(mGeneration, wholeChain);
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseEventListener;
+
+/**
+ * Makes promise activity visible in JDK Flight Recorder recordings. Once installed, these events are emitted:
+ * <ul>
+ *     <li><code>de.junghansschneider.promise.Execute</code>: A promise executed (default threshold 20 ms)</li>
+ *     <li><code>de.junghansschneider.promise.Handler</code>: A handler was dispatched and ran - with its queue delay
+ *         and the class of the handler, so it's clear which chain it belongs to (default threshold 20 ms)</li>
+ *     <li><code>de.junghansschneider.promise.Settled</code>: A promise settled (disabled by default)</li>
+ *     <li><code>de.junghansschneider.promise.UnhandledRejection</code>: A rejection had no error handler</li>
+ *     <li><code>de.junghansschneider.promise.Cancel</code>: A promise was cancelled - with the number of promises
+ *         cancelled along the chain (default threshold 1 ms)</li>
+ * </ul>
+ * The thresholds can be changed in the recording settings like for any JFR event.
+ *
+ * The events need the JFR API of Java 11. They are shipped in the multi-release part of the JAR
+ * (<code>META-INF/versions/11</code>), so the core still runs on Java 7 - {@link #install()} just returns false there.
+ */
+public class PromiseFlightRecorder {
+
+    private static final String LISTENER_CLASS_NAME = "de.junghansschneider.promise.jfr.JfrEventListener";
+
+
+    private PromiseFlightRecorder() {
+    }
+
+    /**
+     * Returns whether the JFR events can be used (running on Java 11 or later with JFR).
+     *
+     * @return whether the JFR events can be used
+     */
+    public static boolean isAvailable() {
+        return getListenerClass() != null;
+    }
+
+    /**
+     * Installs an event listener (see {@link Promise#setEventListener(PromiseEventListener)}) emitting JFR events.
+     *
+     * @return whether the events are available
+     */
+    public static synchronized boolean install() {
+        if (isInstalled()) {
+            return true;
+        }
+
+        Class<?> listenerClass = getListenerClass();
+        if (listenerClass == null) {
+            return false;
+        }
+        try {
+            Promise.setEventListener((PromiseEventListener) listenerClass.getDeclaredConstructor().newInstance());
+            return true;
+        } catch (ReflectiveOperationException | LinkageError exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the event listener installed by {@link #install()}.
+     */
+    public static synchronized void uninstall() {
+        if (isInstalled()) {
+            Promise.setEventListener(null);
+        }
+    }
+
+    public static boolean isInstalled() {
+        PromiseEventListener eventListener = Promise.getEventListener();
+        return eventListener != null && eventListener.getClass().getName().equals(LISTENER_CLASS_NAME);
+    }
+
+    private static Class<?> getListenerClass() {
+        try {
+            // The class only exists in META-INF/versions/11, so it's only found on Java 11 or later
+            return Class.forName(LISTENER_CLASS_NAME);
+        } catch (ClassNotFoundException | LinkageError exc) {
+            return null;
+        }
+    }
+
+}
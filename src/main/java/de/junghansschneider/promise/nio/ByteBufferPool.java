@@ -0,0 +1,81 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of one size. Direct buffers are expensive to allocate and free, but the channel doesn't
+ * have to copy them into a native buffer for each read or write - so they pay off when they are reused.
+ */
+public class ByteBufferPool {
+
+    private final int mBufferSize;
+    private final int mMaxPooledCount;
+    private final ConcurrentLinkedQueue<ByteBuffer> mBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger mPooledCount = new AtomicInteger();
+
+
+    /**
+     * @param bufferSize the capacity of the buffers
+     * @param maxPooledCount the maximum number of idle buffers to keep
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledCount) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1");
+        }
+        mBufferSize = bufferSize;
+        mMaxPooledCount = maxPooledCount;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool.
+     *
+     * @return the number of idle buffers
+     */
+    public int getPooledCount() {
+        return mPooledCount.get();
+    }
+
+    /**
+     * Takes a cleared buffer out of the pool - or allocates a new one if the pool is empty.
+     *
+     * @return a cleared direct buffer of the pool's buffer size
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = mBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(mBufferSize);
+        }
+        mPooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. Buffers not allocated by a pool of this size are ignored, so it's safe to
+     * release any buffer. The buffer must not be used anymore after releasing it.
+     *
+     * @param buffer the buffer to give back
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || ! buffer.isDirect() || buffer.capacity() != mBufferSize) {
+            return;
+        }
+        if (mPooledCount.incrementAndGet() <= mMaxPooledCount) {
+            mBuffers.add(buffer);
+        } else {
+            mPooledCount.decrementAndGet();
+        }
+    }
+
+}
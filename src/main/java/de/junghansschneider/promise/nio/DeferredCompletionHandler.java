@@ -0,0 +1,39 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+
+import java.nio.channels.CompletionHandler;
+
+/**
+ * A deferred settled by an NIO completion handler. Unlike a plain {@link Deferred}, its promise isn't executed by an
+ * executor, so a channel operation costs no executor dispatch at all.
+ */
+class DeferredCompletionHandler<ValueType> extends Deferred<ValueType>
+        implements CompletionHandler<ValueType, Object>
+{
+
+    DeferredCompletionHandler() {
+        super(new Promise<ValueType>(null, false) {
+            @Override
+            protected void execute(Resolver<ValueType> resolver) {
+            }
+        });
+    }
+
+    @Override
+    public void completed(ValueType result, Object attachment) {
+        resolve(result);
+    }
+
+    @Override
+    public void failed(Throwable thr, Object attachment) {
+        reject(thr);
+    }
+
+}
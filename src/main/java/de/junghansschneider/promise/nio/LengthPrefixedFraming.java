@@ -0,0 +1,187 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseErrorHandler;
+import de.junghansschneider.promise.PromiseValueHandler;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads and writes frames prefixed with their length as a 4 byte big-endian integer.
+ *
+ * Frames fitting into a buffer of the pool are written with one direct buffer and read into a pooled buffer.
+ * Callers should give the buffers of read frames back using {@link #release(ByteBuffer)} when they are done with
+ * them. Larger frames use heap buffers and are written with a gathering write.
+ *
+ * Pooled buffers of failed or cancelled reads and writes are given back to the pool as soon as the channel is done
+ * with them. Frames are read on the channel's completion thread only, without an executor hop.
+ */
+public class LengthPrefixedFraming {
+
+    public static final int HEADER_SIZE = 4;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ByteBufferPool mPool;
+    private final int mMaxFrameSize;
+
+
+    /**
+     * @param pool the pool to take buffers from
+     * @param maxFrameSize the maximum payload size of a frame. Reading a larger frame fails, so a broken or malicious
+     *        peer can't make us allocate arbitrary memory.
+     */
+    public LengthPrefixedFraming(ByteBufferPool pool, int maxFrameSize) {
+        if (pool == null) {
+            throw new NullPointerException("pool is null");
+        }
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("maxFrameSize must not be negative");
+        }
+        mPool = pool;
+        mMaxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return mMaxFrameSize;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as one frame.
+     *
+     * @param channel the channel to write to
+     * @param payload the payload of the frame
+     * @return a promise resolving to the number of bytes written (including the header)
+     */
+    public Promise<Long> writeFrame(PromiseSocketChannel channel, ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > mMaxFrameSize) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes exceeds maximum frame size of "
+                    + mMaxFrameSize + " bytes");
+        }
+
+        if (HEADER_SIZE + length <= mPool.getBufferSize()) {
+            ByteBuffer buffer = mPool.acquire();
+            buffer.putInt(length);
+            buffer.put(payload);
+            buffer.flip();
+            // Release from the channel's completion handler, not from the promise: A cancelled promise settles
+            // while the channel may still be writing from the buffer
+            return channel.writeFully(new ByteBuffer[] { buffer }, createReleaseRunnable(buffer));
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(length);
+            header.flip();
+            return channel.writeFully(header, payload);
+        }
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param channel the channel to read from
+     * @return a promise resolving to the payload of the frame, ready for reading. The promise is rejected with an
+     *         EOFException if the stream ends within or before the frame and with a ProtocolException if the frame
+     *         is larger than the maximum frame size.
+     */
+    public Promise<ByteBuffer> readFrame(final PromiseSocketChannel channel) {
+        // Chain with direct handlers instead of then(): Both running the then handler and forwarding the promise it
+        // returns would take a trip through the default executor
+        final Deferred<ByteBuffer> deferred = new DeferredCompletionHandler<ByteBuffer>();
+        final Promise<ByteBuffer> headerPromise = channel.readFully(ByteBuffer.allocate(HEADER_SIZE));
+        deferred.onCancel(new CancelRunnable(headerPromise));
+        headerPromise.onValue(DIRECT_EXECUTOR, new PromiseValueHandler<ByteBuffer>() {
+            @Override
+            public void onValue(ByteBuffer header) {
+                int length = header.getInt();
+                if (length < 0 || length > mMaxFrameSize) {
+                    deferred.reject(new ProtocolException("Frame of " + length
+                            + " bytes exceeds maximum frame size of " + mMaxFrameSize + " bytes"));
+                    return;
+                }
+
+                Promise<ByteBuffer> payloadPromise;
+                if (length <= mPool.getBufferSize()) {
+                    ByteBuffer payload = mPool.acquire();
+                    payload.limit(length);
+                    payloadPromise = channel.readFully(payload, createReleaseRunnable(payload));
+                } else {
+                    payloadPromise = channel.readFully(ByteBuffer.allocate(length));
+                }
+                deferred.onCancel(new CancelRunnable(payloadPromise));
+                ForwardHandler<ByteBuffer> forwardHandler = new ForwardHandler<ByteBuffer>(deferred);
+                payloadPromise.onValue(DIRECT_EXECUTOR, forwardHandler).onError(DIRECT_EXECUTOR, forwardHandler);
+            }
+        }).onError(DIRECT_EXECUTOR, new ForwardHandler<ByteBuffer>(deferred));
+        return deferred.getPromise();
+    }
+
+    /**
+     * Gives the buffer of a read frame back to the pool. Buffers not taken from the pool are ignored.
+     *
+     * @param payload the buffer of a read frame
+     */
+    public void release(ByteBuffer payload) {
+        mPool.release(payload);
+    }
+
+    private static class ForwardHandler<ValueType> implements PromiseValueHandler<ValueType>, PromiseErrorHandler {
+
+        private final Deferred<ValueType> mTarget;
+
+        ForwardHandler(Deferred<ValueType> target) {
+            mTarget = target;
+        }
+
+        @Override
+        public void onValue(ValueType value) {
+            mTarget.resolve(value);
+        }
+
+        @Override
+        public void onError(Throwable thr) {
+            if (! mTarget.isCancelled()) {
+                mTarget.reject(thr);
+            }
+        }
+
+    }
+
+    private static class CancelRunnable implements Runnable {
+
+        private final Promise<?> mPromise;
+
+        CancelRunnable(Promise<?> promise) {
+            mPromise = promise;
+        }
+
+        @Override
+        public void run() {
+            mPromise.cancel();
+        }
+
+    }
+
+    private Runnable createReleaseRunnable(final ByteBuffer buffer) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mPool.release(buffer);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,182 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+/**
+ * Exposes the reads and writes of an {@link AsynchronousFileChannel} as promises. The promises are settled directly
+ * by the channel's completion handler, so no pool thread waits for the disk and there is no extra executor hop.
+ * Only the handlers of the promises are called by their executors as usual.
+ */
+public class PromiseFileChannel implements Closeable {
+
+    private final AsynchronousFileChannel mChannel;
+
+
+    public PromiseFileChannel(AsynchronousFileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel is null");
+        }
+        mChannel = channel;
+    }
+
+    public static PromiseFileChannel open(Path file, OpenOption... options) throws IOException {
+        return new PromiseFileChannel(AsynchronousFileChannel.open(file, options));
+    }
+
+    public AsynchronousFileChannel getChannel() {
+        return mChannel;
+    }
+
+    public long size() throws IOException {
+        return mChannel.size();
+    }
+
+    /**
+     * Reads bytes into a buffer once, like {@link AsynchronousFileChannel#read(ByteBuffer, long)}.
+     *
+     * @param dst the buffer to read into
+     * @param position the file position to read from
+     * @return a promise resolving to the number of bytes read (-1 at the end of the file)
+     */
+    public Promise<Integer> read(ByteBuffer dst, long position) {
+        DeferredCompletionHandler<Integer> handler = new DeferredCompletionHandler<Integer>();
+        try {
+            mChannel.read(dst, position, null, handler);
+        } catch (RuntimeException exc) {
+            handler.reject(exc);
+        }
+        return handler.getPromise();
+    }
+
+    /**
+     * Writes bytes from a buffer once, like {@link AsynchronousFileChannel#write(ByteBuffer, long)}.
+     *
+     * @param src the buffer to write from
+     * @param position the file position to write to
+     * @return a promise resolving to the number of bytes written
+     */
+    public Promise<Integer> write(ByteBuffer src, long position) {
+        DeferredCompletionHandler<Integer> handler = new DeferredCompletionHandler<Integer>();
+        try {
+            mChannel.write(src, position, null, handler);
+        } catch (RuntimeException exc) {
+            handler.reject(exc);
+        }
+        return handler.getPromise();
+    }
+
+    /**
+     * Reads a region of the file into a new buffer. Partial reads are continued in the completion handler.
+     *
+     * @param position the file position to read from
+     * @param length the number of bytes to read
+     * @return a promise resolving to a buffer ready for reading. The buffer has less remaining bytes than
+     *         <code>length</code> if the file ends before.
+     */
+    public Promise<ByteBuffer> readFully(long position, int length) {
+        return readFully(ByteBuffer.allocate(length), position);
+    }
+
+    /**
+     * Reads bytes until a buffer is full or the file ends. Partial reads are continued in the completion handler.
+     *
+     * @param dst the buffer to read into
+     * @param position the file position to read from
+     * @return a promise resolving to <code>dst</code> flipped for reading
+     */
+    public Promise<ByteBuffer> readFully(final ByteBuffer dst, final long position) {
+        final Deferred<ByteBuffer> deferred = new DeferredCompletionHandler<ByteBuffer>();
+        read(dst, position, deferred, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer count, Long readPosition) {
+                if (count < 0 || ! dst.hasRemaining()) {
+                    dst.flip();
+                    deferred.resolve(dst);
+                } else if (deferred.isCancelled()) {
+                    // Nobody is interested anymore
+                } else {
+                    read(dst, readPosition + count, deferred, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable thr, Long readPosition) {
+                deferred.reject(thr);
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer. Partial writes are continued in the completion handler.
+     *
+     * @param src the buffer to write from
+     * @param position the file position to write to
+     * @return a promise resolving to the number of bytes written
+     */
+    public Promise<Integer> writeFully(final ByteBuffer src, final long position) {
+        final Deferred<Integer> deferred = new DeferredCompletionHandler<Integer>();
+        final int length = src.remaining();
+        write(src, position, deferred, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer count, Long writePosition) {
+                if (! src.hasRemaining()) {
+                    deferred.resolve(length);
+                } else if (deferred.isCancelled()) {
+                    // Nobody is interested anymore
+                } else {
+                    write(src, writePosition + count, deferred, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable thr, Long writePosition) {
+                deferred.reject(thr);
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    /**
+     * Starts a read, rejecting the deferred if the channel refuses it right away (e.g. because the channel isn't
+     * readable). Otherwise the exception would get lost in the channel's thread pool when continuing a read.
+     */
+    private void read(ByteBuffer dst, long position, Deferred<?> deferred, CompletionHandler<Integer, Long> handler) {
+        try {
+            mChannel.read(dst, position, position, handler);
+        } catch (RuntimeException exc) {
+            deferred.reject(exc);
+        }
+    }
+
+    /**
+     * Starts a write, rejecting the deferred if the channel refuses it right away.
+     */
+    private void write(ByteBuffer src, long position, Deferred<?> deferred, CompletionHandler<Integer, Long> handler) {
+        try {
+            mChannel.write(src, position, position, handler);
+        } catch (RuntimeException exc) {
+            deferred.reject(exc);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+}
@@ -0,0 +1,118 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Promise;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * File operations without an asynchronous NIO counterpart, run as promises in an executor. They avoid copying through
+ * heap arrays: regions are memory-mapped and copies use <code>transferTo</code>, which lets the operating system move
+ * the bytes directly where supported.
+ */
+public class PromiseFiles {
+
+    /** The maximum number of bytes per <code>transferTo</code> call, so a cancel is noticed in time. */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+
+    private PromiseFiles() {
+    }
+
+    /**
+     * Maps a region of a file into memory for reading.
+     *
+     * @param file the file to map
+     * @param position the position of the region
+     * @param size the size of the region
+     * @param executor the executor to map the file in. If null, the default executor is used.
+     * @return a promise resolving to the mapped region. The mapping stays valid after the file was closed.
+     */
+    public static Promise<MappedByteBuffer> mapReadOnly(final Path file, final long position, final long size,
+            Executor executor)
+    {
+        return new Promise<MappedByteBuffer>(executor) {
+            @Override
+            protected void execute(Resolver<MappedByteBuffer> resolver) throws Exception {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    resolver.resolve(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads a region of a file into a buffer using a memory mapping, so the bytes aren't copied through a heap array
+     * by read calls.
+     *
+     * @param file the file to read
+     * @param position the position of the region
+     * @param dst the buffer to read into. As many bytes are read as the buffer has remaining (or less if the file ends
+     *        before).
+     * @param executor the executor to read the file in. If null, the default executor is used.
+     * @return a promise resolving to <code>dst</code> flipped for reading
+     */
+    public static Promise<ByteBuffer> readMapped(final Path file, final long position, final ByteBuffer dst,
+            Executor executor)
+    {
+        return new Promise<ByteBuffer>(executor) {
+            @Override
+            protected void execute(Resolver<ByteBuffer> resolver) throws Exception {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = Math.max(0, Math.min(dst.remaining(), channel.size() - position));
+                    dst.put(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                }
+                dst.flip();
+                resolver.resolve(dst);
+            }
+        };
+    }
+
+    /**
+     * Copies a file using <code>transferTo</code>. The target is created or truncated. Cancelling the promise stops
+     * the copy after the current chunk.
+     *
+     * @param source the file to copy
+     * @param target the file to copy to
+     * @param executor the executor to copy the file in. If null, the default executor is used.
+     * @return a promise resolving to the number of bytes copied
+     */
+    public static Promise<Long> copy(final Path source, final Path target, Executor executor) {
+        return new Promise<Long>(executor) {
+            @Override
+            protected void execute(Resolver<Long> resolver) throws Exception {
+                try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.WRITE,
+                             StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+                {
+                    long size = sourceChannel.size();
+                    long position = 0;
+                    while (position < size) {
+                        if (resolver.isCancelled()) {
+                            throw new CancellationException("Copying was cancelled");
+                        }
+                        long count = sourceChannel.transferTo(position,
+                                Math.min(TRANSFER_CHUNK_SIZE, size - position), targetChannel);
+                        if (count <= 0) {
+                            // The source shrank meanwhile
+                            break;
+                        }
+                        position += count;
+                    }
+                    resolver.resolve(position);
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,101 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * Exposes accepting connections of an {@link AsynchronousServerSocketChannel} as promises, which are settled
+ * directly on the channel's completion thread. Only one accept may be pending at a time.
+ */
+public class PromiseServerSocketChannel implements Closeable {
+
+    private final AsynchronousServerSocketChannel mChannel;
+
+
+    public PromiseServerSocketChannel(AsynchronousServerSocketChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel is null");
+        }
+        mChannel = channel;
+    }
+
+    public static PromiseServerSocketChannel bind(SocketAddress local) throws IOException {
+        return bind(local, null);
+    }
+
+    /**
+     * Opens a server channel and binds it.
+     *
+     * @param local the address to bind to. If null, an automatically assigned address is used.
+     * @param group the channel group to open the channel in. If null, the default group is used.
+     * @return the bound channel
+     * @throws IOException if opening or binding failed
+     */
+    public static PromiseServerSocketChannel bind(SocketAddress local, AsynchronousChannelGroup group)
+            throws IOException
+    {
+        AsynchronousServerSocketChannel channel = AsynchronousServerSocketChannel.open(group);
+        try {
+            channel.bind(local);
+        } catch (IOException exc) {
+            PromiseSocketChannel.closeQuietly(channel);
+            throw exc;
+        }
+        return new PromiseServerSocketChannel(channel);
+    }
+
+    public AsynchronousServerSocketChannel getChannel() {
+        return mChannel;
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return mChannel.getLocalAddress();
+    }
+
+    /**
+     * Accepts the next connection.
+     *
+     * @return a promise resolving to the accepted connection. If the promise is cancelled, the connection accepted
+     *         next is closed.
+     */
+    public Promise<PromiseSocketChannel> accept() {
+        final Deferred<PromiseSocketChannel> deferred = new DeferredCompletionHandler<PromiseSocketChannel>();
+        mChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Object>() {
+            @Override
+            public void completed(AsynchronousSocketChannel channel, Object attachment) {
+                deferred.resolve(new PromiseSocketChannel(channel));
+                if (deferred.isCancelled()) {
+                    // The promise was cancelled before, so nobody will ever use the connection
+                    PromiseSocketChannel.closeQuietly(channel);
+                }
+            }
+
+            @Override
+            public void failed(Throwable thr, Object attachment) {
+                if (! deferred.isCancelled()) {
+                    deferred.reject(thr);
+                }
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+}
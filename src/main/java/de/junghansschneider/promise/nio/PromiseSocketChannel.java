@@ -0,0 +1,287 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes connect, read and write of an {@link AsynchronousSocketChannel} as promises. The promises are settled
+ * directly on the channel's completion thread, without an executor hop. Like the channel itself, a
+ * PromiseSocketChannel allows only one pending read and one pending write at a time.
+ */
+public class PromiseSocketChannel implements Closeable {
+
+    private final AsynchronousSocketChannel mChannel;
+
+
+    public PromiseSocketChannel(AsynchronousSocketChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel is null");
+        }
+        mChannel = channel;
+    }
+
+    public static Promise<PromiseSocketChannel> connect(SocketAddress remote) {
+        return connect(remote, null);
+    }
+
+    /**
+     * Opens a channel and connects it. Cancelling the returned promise closes the channel.
+     *
+     * @param remote the address to connect to
+     * @param group the channel group to open the channel in. If null, the default group is used.
+     * @return a promise resolving to the connected channel
+     */
+    public static Promise<PromiseSocketChannel> connect(SocketAddress remote, AsynchronousChannelGroup group) {
+        final AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open(group);
+        } catch (IOException exc) {
+            return Promise.rejectedPromise(PromiseSocketChannel.class, exc);
+        }
+
+        final Deferred<PromiseSocketChannel> deferred = new DeferredCompletionHandler<PromiseSocketChannel>();
+        deferred.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(channel);
+            }
+        });
+        channel.connect(remote, null, new CompletionHandler<Void, Object>() {
+            @Override
+            public void completed(Void result, Object attachment) {
+                deferred.resolve(new PromiseSocketChannel(channel));
+            }
+
+            @Override
+            public void failed(Throwable thr, Object attachment) {
+                closeQuietly(channel);
+                if (! deferred.isCancelled()) {
+                    deferred.reject(thr);
+                }
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    public AsynchronousSocketChannel getChannel() {
+        return mChannel;
+    }
+
+    public SocketAddress getRemoteAddress() throws IOException {
+        return mChannel.getRemoteAddress();
+    }
+
+    /**
+     * Reads bytes into a buffer once, like {@link AsynchronousSocketChannel#read(ByteBuffer)}.
+     *
+     * @param dst the buffer to read into
+     * @return a promise resolving to the number of bytes read (-1 at the end of the stream) - or rejected if the
+     *         channel refused the read (e.g. with a ReadPendingException)
+     */
+    public Promise<Integer> read(ByteBuffer dst) {
+        DeferredCompletionHandler<Integer> handler = new DeferredCompletionHandler<Integer>();
+        try {
+            mChannel.read(dst, null, handler);
+        } catch (RuntimeException exc) {
+            // E.g. a ReadPendingException or NotYetConnectedException
+            handler.failed(exc, null);
+        }
+        return handler.getPromise();
+    }
+
+    /**
+     * Reads bytes until a buffer is full. Partial reads are continued on the completion thread.
+     *
+     * @param dst the buffer to read into
+     * @return a promise resolving to <code>dst</code> flipped for reading - or rejected with an EOFException if the
+     *         stream ends before the buffer is full
+     */
+    public Promise<ByteBuffer> readFully(ByteBuffer dst) {
+        return readFully(dst, null);
+    }
+
+    /**
+     * Reads bytes until a buffer is full.
+     *
+     * @param dst the buffer to read into
+     * @param releaseOnFailure called when the read didn't succeed and the channel is done with the buffer (it failed
+     *        or it was stopped because the promise was cancelled) - so the buffer can be reused. May be null.
+     * @return a promise resolving to <code>dst</code> flipped for reading
+     */
+    Promise<ByteBuffer> readFully(final ByteBuffer dst, final Runnable releaseOnFailure) {
+        final Deferred<ByteBuffer> deferred = new DeferredCompletionHandler<ByteBuffer>();
+        if (! dst.hasRemaining()) {
+            dst.flip();
+            deferred.resolve(dst);
+            return deferred.getPromise();
+        }
+
+        read(dst, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer count, Object attachment) {
+                if (deferred.isCancelled()) {
+                    // Nobody is interested anymore
+                    release(releaseOnFailure);
+                } else if (count < 0) {
+                    failed(new EOFException("Stream ended before buffer was full"), attachment);
+                } else if (! dst.hasRemaining()) {
+                    dst.flip();
+                    deferred.resolve(dst);
+                } else {
+                    read(dst, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable thr, Object attachment) {
+                release(releaseOnFailure);
+                if (! deferred.isCancelled()) {
+                    deferred.reject(thr);
+                }
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    /**
+     * Writes bytes from a buffer once, like {@link AsynchronousSocketChannel#write(ByteBuffer)}.
+     *
+     * @param src the buffer to write from
+     * @return a promise resolving to the number of bytes written - or rejected if the channel refused the write (e.g.
+     *         with a WritePendingException)
+     */
+    public Promise<Integer> write(ByteBuffer src) {
+        DeferredCompletionHandler<Integer> handler = new DeferredCompletionHandler<Integer>();
+        try {
+            mChannel.write(src, null, handler);
+        } catch (RuntimeException exc) {
+            // E.g. a WritePendingException or NotYetConnectedException
+            handler.failed(exc, null);
+        }
+        return handler.getPromise();
+    }
+
+    /**
+     * Writes all remaining bytes of some buffers with gathering writes. Partial writes are continued on the
+     * completion thread.
+     *
+     * @param srcs the buffers to write from
+     * @return a promise resolving to the number of bytes written
+     */
+    public Promise<Long> writeFully(ByteBuffer... srcs) {
+        return writeFully(srcs, null);
+    }
+
+    /**
+     * Writes all remaining bytes of some buffers with gathering writes.
+     *
+     * @param srcs the buffers to write from
+     * @param release called when the channel is done with the buffers - whether the write succeeded, failed or was
+     *        stopped because the promise was cancelled. Unlike an <code>always</code> handler of the promise, it's
+     *        never called while the channel may still read from the buffers. May be null.
+     * @return a promise resolving to the number of bytes written
+     */
+    Promise<Long> writeFully(final ByteBuffer[] srcs, final Runnable release) {
+        final Deferred<Long> deferred = new DeferredCompletionHandler<Long>();
+        long length = 0;
+        for (ByteBuffer src : srcs) {
+            length += src.remaining();
+        }
+
+        if (length == 0) {
+            release(release);
+            deferred.resolve(0L);
+            return deferred.getPromise();
+        }
+
+        final long finalLength = length;
+        write(srcs, 0, new CompletionHandler<Long, Object>() {
+            private long mWritten;
+
+            @Override
+            public void completed(Long count, Object attachment) {
+                mWritten += count;
+                if (mWritten == finalLength) {
+                    release(release);
+                    deferred.resolve(finalLength);
+                } else if (deferred.isCancelled()) {
+                    // Nobody is interested anymore
+                    release(release);
+                } else {
+                    int offset = 0;
+                    while (! srcs[offset].hasRemaining()) {
+                        offset++;
+                    }
+                    write(srcs, offset, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable thr, Object attachment) {
+                release(release);
+                if (! deferred.isCancelled()) {
+                    deferred.reject(thr);
+                }
+            }
+        });
+        return deferred.getPromise();
+    }
+
+    /**
+     * Starts a read, reporting an exception thrown right away (e.g. a ReadPendingException) to the handler.
+     * Otherwise the exception would get lost on the completion thread when continuing a read.
+     */
+    private void read(ByteBuffer dst, CompletionHandler<Integer, Object> handler) {
+        try {
+            mChannel.read(dst, null, handler);
+        } catch (RuntimeException exc) {
+            handler.failed(exc, null);
+        }
+    }
+
+    /**
+     * Starts a gathering write, reporting an exception thrown right away to the handler.
+     */
+    private void write(ByteBuffer[] srcs, int offset, CompletionHandler<Long, Object> handler) {
+        try {
+            mChannel.write(srcs, offset, srcs.length - offset, 0, TimeUnit.MILLISECONDS, null, handler);
+        } catch (RuntimeException exc) {
+            handler.failed(exc, null);
+        }
+    }
+
+    private static void release(Runnable release) {
+        if (release != null) {
+            release.run();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException exc) {
+            // Nothing we can do
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("de.junghansschneider.promise.Cancel")
+@Label("Promise Cancel")
+@Description("A promise was cancelled, maybe together with its ancestors")
+@Category("Promise4Java")
+@Threshold("1 ms")
+class CancelEvent extends Event {
+
+    @Label("Promise Class")
+    String promiseClass;
+
+    @Label("Promise Id")
+    @Description("The identity hash code of the promise")
+    int promiseId;
+
+    @Label("Cancelled Count")
+    @Description("The number of promises cancelled along the chain")
+    int cancelledCount;
+
+}
@@ -0,0 +1,32 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("de.junghansschneider.promise.Execute")
+@Label("Promise Execute")
+@Description("A promise executed its work")
+@Category("Promise4Java")
+@Threshold("20 ms")
+class ExecuteEvent extends Event {
+
+    @Label("Promise Class")
+    String promiseClass;
+
+    @Label("Promise Id")
+    @Description("The identity hash code of the promise")
+    int promiseId;
+
+    @Label("Priority")
+    int priority;
+
+}
@@ -0,0 +1,43 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("de.junghansschneider.promise.Handler")
+@Label("Promise Handler")
+@Description("A handler of a settled promise was dispatched to its executor and ran. The event starts when the "
+        + "handler is dispatched, so its duration includes the queue delay.")
+@Category("Promise4Java")
+@Threshold("20 ms")
+class HandlerEvent extends Event {
+
+    @Label("Promise Class")
+    String promiseClass;
+
+    @Label("Promise Id")
+    @Description("The identity hash code of the promise")
+    int promiseId;
+
+    @Label("Handler Class")
+    @Description("The class of the handler passed to then, onValue, onError or always")
+    String handlerClass;
+
+    @Label("Rejected")
+    @Description("Whether the handler got an error")
+    boolean rejected;
+
+    @Label("Queue Delay")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueDelay;
+
+}
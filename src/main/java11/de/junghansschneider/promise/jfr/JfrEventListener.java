@@ -0,0 +1,119 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseEventListener;
+
+/**
+ * Emits the JFR events of {@link PromiseFlightRecorder}. Events are only created and filled if they are enabled, and
+ * only committed if they pass their threshold.
+ */
+class JfrEventListener implements PromiseEventListener {
+
+    @Override
+    public Object onExecuteStarted(Promise<?> promise) {
+        ExecuteEvent event = new ExecuteEvent();
+        if (! event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void onExecuteFinished(Promise<?> promise, Object context) {
+        if (context == null) {
+            return;
+        }
+        ExecuteEvent event = (ExecuteEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.promiseClass = promise.getClass().getName();
+            event.promiseId = System.identityHashCode(promise);
+            event.priority = promise.getPriority();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object onHandlerDispatched(Promise<?> promise, Object handler) {
+        HandlerEvent event = new HandlerEvent();
+        if (! event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        event.handlerClass = handler.getClass().getName();
+        return event;
+    }
+
+    @Override
+    public void onHandlerFinished(Promise<?> promise, Object context, long queueDelayNanos) {
+        if (context == null) {
+            return;
+        }
+        HandlerEvent event = (HandlerEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.promiseClass = promise.getClass().getName();
+            event.promiseId = System.identityHashCode(promise);
+            event.rejected = (promise.getRejectCause() != null);
+            event.queueDelay = queueDelayNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onSettled(Promise<?> promise) {
+        SettledEvent event = new SettledEvent();
+        if (event.shouldCommit()) {
+            Throwable rejectCause = promise.getRejectCause();
+            event.promiseClass = promise.getClass().getName();
+            event.promiseId = System.identityHashCode(promise);
+            event.outcome = (rejectCause == null) ? "resolved"
+                    : (Promise.isCancelled(rejectCause) ? "cancelled" : "rejected");
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onUnhandledRejection(Promise<?> promise, Throwable thr) {
+        UnhandledRejectionEvent event = new UnhandledRejectionEvent();
+        if (event.shouldCommit()) {
+            event.promiseClass = promise.getClass().getName();
+            event.promiseId = System.identityHashCode(promise);
+            event.exceptionClass = (thr == null) ? null : thr.getClass().getName();
+            event.message = (thr == null) ? null : thr.getMessage();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object onCancelStarted(Promise<?> promise) {
+        CancelEvent event = new CancelEvent();
+        if (! event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void onCancelFinished(Promise<?> promise, Object context, int cancelledCount) {
+        if (context == null || cancelledCount == 0) {
+            return;
+        }
+        CancelEvent event = (CancelEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.promiseClass = promise.getClass().getName();
+            event.promiseId = System.identityHashCode(promise);
+            event.cancelledCount = cancelledCount;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("de.junghansschneider.promise.Settled")
+@Label("Promise Settled")
+@Description("A promise was resolved, rejected or cancelled")
+@Category("Promise4Java")
+@Enabled(false)
+@StackTrace(false)
+class SettledEvent extends Event {
+
+    @Label("Promise Class")
+    String promiseClass;
+
+    @Label("Promise Id")
+    @Description("The identity hash code of the promise")
+    int promiseId;
+
+    @Label("Outcome")
+    @Description("resolved, rejected or cancelled")
+    String outcome;
+
+}
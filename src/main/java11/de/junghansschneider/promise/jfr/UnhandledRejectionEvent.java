@@ -0,0 +1,33 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("de.junghansschneider.promise.UnhandledRejection")
+@Label("Promise Unhandled Rejection")
+@Description("A promise was rejected, but has no error handler")
+@Category("Promise4Java")
+class UnhandledRejectionEvent extends Event {
+
+    @Label("Promise Class")
+    String promiseClass;
+
+    @Label("Promise Id")
+    @Description("The identity hash code of the promise")
+    int promiseId;
+
+    @Label("Exception Class")
+    String exceptionClass;
+
+    @Label("Message")
+    String message;
+
+}
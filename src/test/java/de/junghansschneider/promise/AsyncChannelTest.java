@@ -0,0 +1,119 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncChannelTest extends TestCase {
+
+    public void testBackpressure() throws Exception {
+        AsyncChannel<String> channel = new AsyncChannel<String>(2);
+
+        assertTrue(channel.send("a").isFinished());
+        assertTrue(channel.send("b").isFinished());
+        Promise<Void> sendC = channel.send("c");
+        assertFalse(sendC.isFinished());
+        assertEquals(2, channel.size());
+
+        assertEquals("a", channel.receive().getValue());
+        assertTrue(sendC.isFinished());
+        assertEquals("b", channel.receive().getValue());
+        assertEquals("c", channel.receive().getValue());
+        assertEquals(0, channel.size());
+    }
+
+    public void testWaitingReceiver() throws Exception {
+        AsyncChannel<String> channel = new AsyncChannel<String>(1);
+
+        Promise<String> receive1 = channel.receive();
+        Promise<String> receive2 = channel.receive();
+        assertFalse(receive1.isFinished());
+
+        channel.send("a");
+        channel.send("b");
+        assertEquals("a", receive1.getValue());
+        assertEquals("b", receive2.getValue());
+        assertEquals(0, channel.size());
+    }
+
+    public void testCancel() throws Exception {
+        AsyncChannel<String> channel = new AsyncChannel<String>(1);
+
+        Promise<String> receive1 = channel.receive();
+        Promise<String> receive2 = channel.receive();
+        assertTrue(receive1.cancel());
+        channel.send("a");
+        assertEquals("a", receive2.getValue());
+
+        channel.send("b");
+        Promise<Void> sendC = channel.send("c");
+        Promise<Void> sendD = channel.send("d");
+        assertTrue(sendC.cancel());
+        assertEquals("b", channel.receive().getValue());
+        assertTrue(sendD.isFinished());
+        assertEquals("d", channel.receive().getValue());
+        assertFalse(channel.receive().isFinished());
+    }
+
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final AsyncChannel<Integer> channel = new AsyncChannel<Integer>(16);
+        final int producerCount = 4;
+        final int consumerCount = 3;
+        final int itemsPerProducer = 20000;
+        final AtomicLong receivedSum = new AtomicLong();
+        final boolean[] failed = new boolean[] { false };
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < producerCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int item = 1; item <= itemsPerProducer; item++) {
+                            channel.send(item).await();
+                            if (channel.size() > channel.getCapacity()) {
+                                failed[0] = true;
+                            }
+                        }
+                    } catch (InterruptedException exc) {
+                        failed[0] = true;
+                    }
+                }
+            }));
+        }
+        final int itemsPerConsumer = producerCount * itemsPerProducer / consumerCount;
+        final int remainder = producerCount * itemsPerProducer - itemsPerConsumer * consumerCount;
+        for (int i = 0; i < consumerCount; i++) {
+            final int count = itemsPerConsumer + (i == 0 ? remainder : 0);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        receivedSum.addAndGet(channel.receive().join());
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(20000);
+            assertFalse(thread.isAlive());
+        }
+
+        long expectedSum = (long) producerCount * itemsPerProducer * (itemsPerProducer + 1) / 2;
+        assertEquals(expectedSum, receivedSum.get());
+        assertFalse(failed[0]);
+        assertEquals(0, channel.size());
+    }
+
+}
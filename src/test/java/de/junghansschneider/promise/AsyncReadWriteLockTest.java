@@ -0,0 +1,149 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncReadWriteLockTest extends TestCase {
+
+    public void testReadersShareLock() throws Exception {
+        AsyncReadWriteLock lock = new AsyncReadWriteLock();
+
+        Promise<AsyncReadWriteLock.Handle> read1 = lock.readLock();
+        Promise<AsyncReadWriteLock.Handle> read2 = lock.readLock();
+        assertTrue(read1.isFinished());
+        assertTrue(read2.isFinished());
+        assertEquals(2, lock.getReaderCount());
+
+        Promise<AsyncReadWriteLock.Handle> write = lock.writeLock();
+        assertFalse(write.isFinished());
+
+        read1.getValue().release();
+        assertFalse(write.isFinished());
+        read2.getValue().release();
+        assertTrue(write.isFinished());
+        assertTrue(lock.isWriteLocked());
+        assertTrue(write.getValue().isWriteLock());
+
+        write.getValue().release();
+        assertFalse(lock.isWriteLocked());
+
+        try {
+            write.getValue().release();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+    }
+
+    public void testWriterPreference() throws Exception {
+        AsyncReadWriteLock lock = new AsyncReadWriteLock();
+
+        Promise<AsyncReadWriteLock.Handle> read1 = lock.readLock();
+        Promise<AsyncReadWriteLock.Handle> write1 = lock.writeLock();
+        Promise<AsyncReadWriteLock.Handle> read2 = lock.readLock();
+        Promise<AsyncReadWriteLock.Handle> write2 = lock.writeLock();
+
+        // The reader coming after a waiting writer has to wait
+        assertFalse(read2.isFinished());
+        assertEquals(3, lock.getQueueLength());
+
+        read1.getValue().release();
+        assertTrue(write1.isFinished());
+        assertFalse(read2.isFinished());
+
+        write1.getValue().release();
+        assertTrue(write2.isFinished());
+        assertFalse(read2.isFinished());
+
+        write2.getValue().release();
+        assertTrue(read2.isFinished());
+        assertEquals(1, lock.getReaderCount());
+    }
+
+    public void testCancelWaitingWriter() throws Exception {
+        AsyncReadWriteLock lock = new AsyncReadWriteLock();
+
+        Promise<AsyncReadWriteLock.Handle> read1 = lock.readLock();
+        Promise<AsyncReadWriteLock.Handle> write = lock.writeLock();
+        Promise<AsyncReadWriteLock.Handle> read2 = lock.readLock();
+        assertFalse(read2.isFinished());
+
+        // The waiting reader may go on as soon as the writer it waits for is gone
+        assertTrue(write.cancel());
+        assertTrue(read2.isFinished());
+        assertEquals(2, lock.getReaderCount());
+        assertEquals(0, lock.getQueueLength());
+
+        read1.getValue().release();
+        read2.getValue().release();
+        assertTrue(lock.writeLock().isFinished());
+    }
+
+    public void testCancelManyWaiting() throws Exception {
+        AsyncReadWriteLock lock = new AsyncReadWriteLock();
+        Promise<AsyncReadWriteLock.Handle> write1 = lock.writeLock();
+
+        // Cancelled requests leave the queue right away, not only when the lock is released
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(lock.readLock().cancel());
+            assertTrue(lock.writeLock().cancel());
+            assertEquals(0, lock.getQueueLength());
+        }
+
+        Promise<AsyncReadWriteLock.Handle> write2 = lock.writeLock();
+        Promise<AsyncReadWriteLock.Handle> read = lock.readLock();
+        assertEquals(2, lock.getQueueLength());
+        write1.getValue().release();
+        assertTrue(write2.isFinished());
+        assertFalse(read.isFinished());
+        write2.getValue().release();
+        assertTrue(read.isFinished());
+        assertEquals(0, lock.getQueueLength());
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final AsyncReadWriteLock lock = new AsyncReadWriteLock();
+        final AtomicInteger readerCount = new AtomicInteger();
+        final AtomicInteger writerCount = new AtomicInteger();
+        final boolean[] failed = new boolean[] { false };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        List<Promise<Void>> promises = new ArrayList<Promise<Void>>();
+        for (int i = 0; i < 500; i++) {
+            final boolean write = (i % 5 == 0);
+            Promise<AsyncReadWriteLock.Handle> handlePromise = write ? lock.writeLock() : lock.readLock();
+            promises.add(handlePromise.then(executor, new PromiseThenHandler<AsyncReadWriteLock.Handle, Void>() {
+                @Override
+                public Promise<Void> onValue(AsyncReadWriteLock.Handle handle) {
+                    AtomicInteger counter = write ? writerCount : readerCount;
+                    counter.incrementAndGet();
+                    if (writerCount.get() > 1 || (writerCount.get() == 1 && readerCount.get() > 0)) {
+                        failed[0] = true;
+                    }
+                    Thread.yield();
+                    counter.decrementAndGet();
+                    handle.release();
+                    return Promise.resolvedPromise(null);
+                }
+            }));
+        }
+
+        assertTrue(Promise.awaitAll(promises, 10, TimeUnit.SECONDS));
+        assertFalse(failed[0]);
+        assertEquals(0, lock.getReaderCount());
+        assertFalse(lock.isWriteLocked());
+        executor.shutdown();
+    }
+
+}
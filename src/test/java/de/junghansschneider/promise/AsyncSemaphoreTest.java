@@ -0,0 +1,203 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncSemaphoreTest extends TestCase {
+
+    public void testAcquireRelease() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(1);
+
+        Promise<Void> permit1 = semaphore.acquire();
+        Promise<Void> permit2 = semaphore.acquire();
+        Promise<Void> permit3 = semaphore.acquire();
+        assertTrue(permit1.isFinished());
+        assertFalse(permit2.isFinished());
+        assertFalse(semaphore.tryAcquire());
+        assertEquals(2, semaphore.getQueueLength());
+
+        semaphore.release();
+        assertTrue(permit2.isFinished());
+        assertFalse(permit3.isFinished());
+
+        semaphore.release();
+        semaphore.release();
+        assertTrue(permit3.isFinished());
+        assertEquals(1, semaphore.getAvailablePermits());
+        assertTrue(semaphore.tryAcquire());
+    }
+
+    public void testCancelWaiting() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(1);
+
+        semaphore.acquire();
+        Promise<Void> permit2 = semaphore.acquire();
+        Promise<Void> permit3 = semaphore.acquire();
+        assertTrue(permit2.cancel());
+
+        // The cancelled waiter is skipped
+        semaphore.release();
+        assertTrue(permit3.isFinished());
+        assertFalse(permit3.isCancelled());
+
+        semaphore.release();
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    public void testCancelManyWaiting() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(1);
+        assertTrue(semaphore.tryAcquire());
+
+        // The cancelled waiters leave the queue right away, not only when a permit is released
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(semaphore.acquire().cancel());
+            assertEquals(0, semaphore.getQueueLength());
+        }
+
+        Promise<Void> permit = semaphore.acquire();
+        assertEquals(1, semaphore.getQueueLength());
+        semaphore.release();
+        assertTrue(permit.isFinished());
+        assertFalse(permit.isCancelled());
+        assertEquals(0, semaphore.getAvailablePermits());
+
+        semaphore.release();
+        assertEquals(1, semaphore.getAvailablePermits());
+        assertEquals(0, semaphore.getQueueLength());
+    }
+
+    public void testConcurrentCancel() throws Exception {
+        final AsyncSemaphore semaphore = new AsyncSemaphore(2);
+        final AtomicInteger activeCount = new AtomicInteger();
+        final AtomicInteger maxActiveCount = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        final Throwable[] error = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            Promise<Void> permit = semaphore.acquire();
+                            if ((i + threadIndex) % 2 == 0 && permit.cancel()) {
+                                continue;
+                            }
+                            permit.waitForResult(5000);
+                            int active = activeCount.incrementAndGet();
+                            maxActiveCount.set(Math.max(maxActiveCount.get(), active));
+                            activeCount.decrementAndGet();
+                            semaphore.release();
+                        }
+                    } catch (Throwable thr) {
+                        error[0] = thr;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(20000);
+        }
+
+        assertNull(error[0]);
+        assertTrue(maxActiveCount.get() <= 2);
+        assertEquals(2, semaphore.getAvailablePermits());
+        assertEquals(0, semaphore.getQueueLength());
+    }
+
+    public void testWithPermit() throws Exception {
+        final AsyncSemaphore semaphore = new AsyncSemaphore(2);
+        final AtomicInteger activeCount = new AtomicInteger();
+        final AtomicInteger maxActiveCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            promises.add(semaphore.withPermit(new PromiseFactory<Integer>() {
+                @Override
+                public Promise<Integer> create() {
+                    return new Promise<Integer>(executor) {
+                        @Override
+                        protected void execute(Resolver<Integer> resolver) throws Exception {
+                            int active = activeCount.incrementAndGet();
+                            synchronized(maxActiveCount) {
+                                maxActiveCount.set(Math.max(maxActiveCount.get(), active));
+                            }
+                            Thread.sleep(5);
+                            activeCount.decrementAndGet();
+                            resolver.resolve(value);
+                        }
+                    };
+                }
+            }));
+        }
+
+        assertTrue(Promise.awaitAll(promises, 5, TimeUnit.SECONDS));
+        for (int i = 0; i < promises.size(); i++) {
+            assertEquals(i, promises.get(i).getValue().intValue());
+        }
+        assertTrue(maxActiveCount.get() <= 2);
+        waitForPermits(semaphore, 2);
+        executor.shutdown();
+    }
+
+    public void testWithPermitCancelled() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(1);
+        final boolean[] factoryCalled = new boolean[] { false };
+
+        semaphore.acquire();
+        Promise<String> promise = semaphore.withPermit(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() {
+                factoryCalled[0] = true;
+                return Promise.resolvedPromise("never");
+            }
+        });
+        assertTrue(promise.cancel());
+
+        semaphore.release();
+        Thread.sleep(50);
+        assertFalse(factoryCalled[0]);
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    public void testWithPermitFactoryError() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(1);
+        Promise<String> promise = semaphore.withPermit(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() throws Exception {
+                throw new Exception("Test");
+            }
+        });
+
+        try {
+            promise.waitForResult(1000);
+            fail("Exception expected");
+        } catch (Exception exc) {
+            assertEquals("Test", exc.getMessage());
+        }
+        waitForPermits(semaphore, 1);
+    }
+
+    private static void waitForPermits(AsyncSemaphore semaphore, int permits) throws InterruptedException {
+        // The permit is released in an always handler, which may run a little later
+        for (int i = 0; i < 100 && semaphore.getAvailablePermits() != permits; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(permits, semaphore.getAvailablePermits());
+    }
+
+}
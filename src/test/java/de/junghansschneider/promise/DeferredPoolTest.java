@@ -0,0 +1,227 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class DeferredPoolTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Promise.setFallbackErrorHandler(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                // Ignore unhandled errors
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Promise.setFallbackErrorHandler(null);
+    }
+
+    public void testReuse() throws Exception {
+        DeferredPool<String> pool = new DeferredPool<String>();
+
+        RecyclableDeferred<String> deferred = pool.acquire();
+        final String[] result = new String[1];
+        deferred.getPromise().onValue(new PromiseValueHandler<String>() {
+            @Override
+            public void onValue(String value) {
+                result[0] = value;
+            }
+        });
+        deferred.resolve("first");
+        assertEquals("first", result[0]);
+        Promise<String> promise = deferred.getPromise();
+        deferred.release();
+        assertTrue(deferred.isRecycled());
+
+        RecyclableDeferred<String> reusedDeferred = pool.acquire();
+        assertSame(deferred.getRecyclablePromise(), reusedDeferred.getRecyclablePromise());
+        assertNotSame(promise, reusedDeferred.getPromise());
+        assertFalse(reusedDeferred.getPromise().isFinished());
+        assertNull(reusedDeferred.getPromise().getValue());
+
+        reusedDeferred.reject(new Exception("second"));
+        try {
+            reusedDeferred.getPromise().waitForResult(1000);
+            fail("Exception expected");
+        } catch (Exception exc) {
+            assertEquals("second", exc.getMessage());
+        }
+        assertEquals("first", result[0]);
+    }
+
+    public void testUseAfterRelease() {
+        DeferredPool<String> pool = new DeferredPool<String>();
+        RecyclableDeferred<String> deferred = pool.acquire();
+
+        try {
+            deferred.release();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Pending deferreds can't be released
+        }
+
+        deferred.getPromise().cancel();
+        deferred.release();
+
+        try {
+            deferred.resolve("too late");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+        try {
+            deferred.getPromise();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+    }
+
+    public void testStaleHandle() {
+        DeferredPool<String> pool = new DeferredPool<String>();
+        RecyclableDeferred<String> deferred = pool.acquire();
+        deferred.resolve("first");
+        deferred.release();
+
+        RecyclableDeferred<String> reusedDeferred = pool.acquire();
+        assertFalse(reusedDeferred.isRecycled());
+        // The old handle must not touch the promise of the next use
+        assertTrue(deferred.isRecycled());
+        try {
+            deferred.resolve("stale");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+        try {
+            deferred.release();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+        assertFalse(reusedDeferred.getPromise().isFinished());
+    }
+
+    public void testStalePromise() throws Exception {
+        DeferredPool<String> pool = new DeferredPool<String>();
+        RecyclableDeferred<String> deferred = pool.acquire();
+        Promise<String> stalePromise = deferred.getPromise();
+        deferred.resolve("first");
+        deferred.release();
+
+        RecyclableDeferred<String> reusedDeferred = pool.acquire();
+        Promise<String> promise = reusedDeferred.getPromise();
+
+        // A consumer keeping the promise of the first use must never see the result of the second one
+        final String[] result = new String[1];
+        stalePromise.onValue(new PromiseValueHandler<String>() {
+            @Override
+            public void onValue(String value) {
+                result[0] = value;
+            }
+        });
+        assertFalse(stalePromise.cancel());
+        assertFalse(promise.isFinished());
+
+        reusedDeferred.resolve("second");
+        assertEquals("first", result[0]);
+        assertEquals("first", stalePromise.waitForResult(1000));
+        assertEquals("second", promise.waitForResult(1000));
+    }
+
+    public void testCancel() {
+        DeferredPool<String> pool = new DeferredPool<String>();
+        RecyclableDeferred<String> deferred = pool.acquire();
+        final boolean[] cancelled = new boolean[1];
+        deferred.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelled[0] = true;
+            }
+        });
+
+        // Cancelling the promise a consumer got reaches the producer
+        assertTrue(deferred.getPromise().cancel());
+        assertTrue(cancelled[0]);
+        assertTrue(deferred.isCancelled());
+    }
+
+    public void testReleaseInHandler() {
+        DeferredPool<String> pool = new DeferredPool<String>();
+        final RecyclableDeferred<String> deferred = pool.acquire();
+        final String[] result = new String[1];
+        deferred.getPromise()
+                .always(new Runnable() {
+                    @Override
+                    public void run() {
+                        deferred.release();
+                    }
+                })
+                .onValue(new PromiseValueHandler<String>() {
+                    @Override
+                    public void onValue(String value) {
+                        result[0] = value;
+                    }
+                });
+
+        // The default executor is synchronous, so the release happens while the handlers are dispatched
+        deferred.resolve("value");
+        assertEquals("value", result[0]);
+        assertTrue(deferred.isRecycled());
+        assertEquals(1, pool.getPooledCount());
+        assertFalse(pool.acquire().getPromise().isFinished());
+    }
+
+    public void testReleaseOnOtherThread() throws Exception {
+        final DeferredPool<String> pool = new DeferredPool<String>();
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 10; i++) {
+                final RecyclableDeferred<String> deferred = pool.acquire();
+                worker.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        deferred.resolve("value");
+                        deferred.release();
+                    }
+                }).get(1, TimeUnit.SECONDS);
+
+                // A deferred released by the worker is handed out again on this thread
+                assertEquals(1, pool.getPooledCount());
+                assertSame(deferred.getRecyclablePromise(), pool.acquire().getRecyclablePromise());
+                assertEquals(0, pool.getPooledCount());
+            }
+        } finally {
+            worker.shutdown();
+        }
+    }
+
+    public void testPoolLimit() {
+        DeferredPool<String> pool = new DeferredPool<String>(1);
+        RecyclableDeferred<String> deferred1 = pool.acquire();
+        RecyclableDeferred<String> deferred2 = pool.acquire();
+        deferred1.resolve("1");
+        deferred2.resolve("2");
+        deferred1.release();
+        deferred2.release();
+
+        assertEquals(1, pool.getPooledCount());
+        assertSame(deferred1.getRecyclablePromise(), pool.acquire().getRecyclablePromise());
+        assertNotSame(deferred2.getRecyclablePromise(), pool.acquire().getRecyclablePromise());
+    }
+
+}
@@ -0,0 +1,98 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class KeyedSerialExecutorTest extends TestCase {
+
+    private ExecutorService mPool;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = Executors.newFixedThreadPool(8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mPool.shutdown();
+    }
+
+    public void testOrderPerKey() throws Exception {
+        final int keyCount = 100;
+        final int taskCount = 1000;
+        final KeyedSerialExecutor executor = new KeyedSerialExecutor(mPool);
+        final CountDownLatch doneLatch = new CountDownLatch(keyCount * taskCount);
+        final int[] nextIndex = new int[keyCount];
+        final AtomicBoolean[] running = new AtomicBoolean[keyCount];
+        final boolean[] failed = new boolean[] { false };
+
+        for (int key = 0; key < keyCount; key++) {
+            running[key] = new AtomicBoolean();
+        }
+
+        for (int i = 0; i < taskCount; i++) {
+            for (int key = 0; key < keyCount; key++) {
+                final int finalKey = key;
+                final int index = i;
+                executor.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (! running[finalKey].compareAndSet(false, true) || nextIndex[finalKey] != index) {
+                            failed[0] = true;
+                        }
+                        nextIndex[finalKey]++;
+                        running[finalKey].set(false);
+                        doneLatch.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        assertFalse(failed[0]);
+
+        long timeoutTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (executor.getActiveKeyCount() != 0 && System.nanoTime() < timeoutTime) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, executor.getActiveKeyCount());
+    }
+
+    public void testPromisesForKey() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(mPool);
+        final List<Integer> results = new ArrayList<Integer>();
+
+        List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            promises.add(new Promise<Integer>(executor.forKey("account")) {
+                @Override
+                protected void execute(Resolver<Integer> resolver) {
+                    results.add(value);
+                    resolver.resolve(value);
+                }
+            });
+        }
+
+        assertTrue(Promise.awaitAll(promises, 5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PromiseBatchLoaderTest extends TestCase {
+
+    private List<List<Integer>> mBatches;
+    private PromiseBatchFunction<Integer, String> mBatchFunction;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBatches = new ArrayList<List<Integer>>();
+        mBatchFunction = new PromiseBatchFunction<Integer, String>() {
+            @Override
+            public Promise<Map<Integer, String>> load(List<Integer> keys) throws Exception {
+                synchronized(mBatches) {
+                    mBatches.add(keys);
+                }
+                if (keys.contains(-1)) {
+                    throw new Exception("Invalid key");
+                }
+
+                Map<Integer, String> values = new HashMap<Integer, String>();
+                for (Integer key : keys) {
+                    if (key != 0) {
+                        values.put(key, "value" + key);
+                    }
+                }
+                return Promise.resolvedPromise(values);
+            }
+        };
+    }
+
+    public void testWindow() throws Exception {
+        PromiseBatchLoader<Integer, String> loader = new PromiseBatchLoader<Integer, String>(mBatchFunction, 50, 100);
+
+        Promise<String> promise1 = loader.load(1);
+        Promise<String> promise2 = loader.load(2);
+        Promise<String> promise1Again = loader.load(1);
+        Promise<String> promise0 = loader.load(0);
+
+        assertSame(promise1, promise1Again);
+        assertEquals("value1", promise1.waitForResult(1000));
+        assertEquals("value2", promise2.waitForResult(1000));
+        assertNull(promise0.waitForResult(1000));
+
+        assertEquals(1, mBatches.size());
+        assertEquals(3, mBatches.get(0).size());
+    }
+
+    public void testMaxBatchSize() throws Exception {
+        PromiseBatchLoader<Integer, String> loader = new PromiseBatchLoader<Integer, String>(mBatchFunction, 10000, 2);
+
+        Promise<String> promise1 = loader.load(1);
+        Promise<String> promise2 = loader.load(2);
+        Promise<String> promise3 = loader.load(3);
+
+        // The first batch is full and dispatched right away, the second one waits for its window
+        assertEquals("value1", promise1.waitForResult(1000));
+        assertEquals("value2", promise2.waitForResult(1000));
+        assertFalse(promise3.isFinished());
+
+        loader.flush();
+        assertEquals("value3", promise3.waitForResult(1000));
+        assertEquals(2, mBatches.size());
+    }
+
+    public void testBatchError() throws Exception {
+        PromiseBatchLoader<Integer, String> loader = new PromiseBatchLoader<Integer, String>(mBatchFunction, 10, 100);
+
+        Promise<String> promise1 = loader.load(1);
+        Promise<String> promise2 = loader.load(-1);
+
+        for (Promise<String> promise : new Promise[] { promise1, promise2 }) {
+            try {
+                promise.waitForResult(1000);
+                fail("Exception expected");
+            } catch (Exception exc) {
+                assertEquals("Invalid key", exc.getMessage());
+            }
+        }
+    }
+
+    public void testBatchFunctionReturningNull() throws Exception {
+        PromiseBatchFunction<Integer, String> nullFunction = new PromiseBatchFunction<Integer, String>() {
+            @Override
+            public Promise<Map<Integer, String>> load(List<Integer> keys) {
+                return keys.contains(1) ? null : Promise.resolvedPromise((Map<Integer, String>) null);
+            }
+        };
+        PromiseBatchLoader<Integer, String> loader = new PromiseBatchLoader<Integer, String>(nullFunction, 10, 100);
+
+        // A null promise and a promise of a null map both reject all lookups of the batch
+        for (int key : new int[] { 1, 2 }) {
+            Promise<String> promise1 = loader.load(key);
+            Promise<String> promise2 = loader.load(key + 10);
+            for (Promise<String> promise : new Promise[] { promise1, promise2 }) {
+                try {
+                    promise.waitForResult(1000);
+                    fail("Exception expected");
+                } catch (NullPointerException exc) {
+                    assertEquals("batch function returned null", exc.getMessage());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PromiseCircuitBreakerTest extends TestCase {
+
+    private int mFactoryCallCount;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Promise.setFallbackErrorHandler(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                // Ignore unhandled errors
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Promise.setFallbackErrorHandler(null);
+    }
+
+    public void testOpenAndRecover() throws Exception {
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(4, 0.5f, 100);
+
+        call(breaker, true);
+        call(breaker, false);
+        call(breaker, true);
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, false);
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+
+        // Open -> The factory isn't called
+        int factoryCallCount = mFactoryCallCount;
+        Promise<String> promise = call(breaker, true);
+        assertEquals(factoryCallCount, mFactoryCallCount);
+        assertTrue(promise.getRejectCause() instanceof CircuitBreakerOpenException);
+
+        // Failed probe -> Open again
+        Thread.sleep(150);
+        call(breaker, false);
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(call(breaker, true).getRejectCause() instanceof CircuitBreakerOpenException);
+
+        // Successful probe -> Closed
+        Thread.sleep(150);
+        assertEquals("ok", call(breaker, true).waitForResult(1000));
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+
+        // The window starts over after closing
+        call(breaker, false);
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testHalfOpenLimit() throws Exception {
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(1, 1, 1, Long.MAX_VALUE, 50, 2);
+        call(breaker, false);
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+
+        Deferred<String> probe1 = new Deferred<String>();
+        Deferred<String> probe2 = new Deferred<String>();
+        assertSame(probe1.getPromise(), breaker.call(factoryFor(probe1)));
+        assertSame(probe2.getPromise(), breaker.call(factoryFor(probe2)));
+        assertEquals(PromiseCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // Only two probes may pass
+        assertTrue(call(breaker, true).getRejectCause() instanceof CircuitBreakerOpenException);
+
+        probe1.resolve("1");
+        assertEquals(PromiseCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        probe2.resolve("2");
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testConcurrentHalfOpen() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            // A long probe timeout, so slowly starting threads don't let the probes time out
+            final PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(1, 1, 1, Long.MAX_VALUE, 10, 2, 60000);
+            call(breaker, false);
+            Thread.sleep(20);
+
+            // Many threads see the open duration pass at once - only one of them may set up the probes
+            final AtomicInteger passedCount = new AtomicInteger();
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                        } catch (InterruptedException exc) {
+                            return;
+                        }
+                        if (breaker.call(factoryFor(new Deferred<String>())).getRejectCause() == null) {
+                            passedCount.incrementAndGet();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            startLatch.countDown();
+            for (Thread thread : threads) {
+                thread.join(1000);
+            }
+
+            assertEquals(2, passedCount.get());
+            assertEquals(PromiseCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        }
+    }
+
+    public void testProbeTimeout() throws Exception {
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(1, 1, 1, Long.MAX_VALUE, 50, 1, 50);
+        call(breaker, false);
+        Thread.sleep(100);
+
+        Deferred<String> hangingProbe = new Deferred<String>();
+        assertSame(hangingProbe.getPromise(), breaker.call(factoryFor(hangingProbe)));
+        assertTrue(call(breaker, true).getRejectCause() instanceof CircuitBreakerOpenException);
+
+        // The probe never settles -> After the probe timeout the breaker opens again instead of staying half-open
+        Thread.sleep(100);
+        assertTrue(call(breaker, true).getRejectCause() instanceof CircuitBreakerOpenException);
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+
+        // A late outcome of the old probe doesn't count for the next phase
+        hangingProbe.resolve("late");
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        assertEquals("ok", call(breaker, true).waitForResult(1000));
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testSlowCalls() throws Exception {
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(2, 1, 0.5f, 20, 1000, 1);
+
+        call(breaker, true);
+        assertEquals(PromiseCircuitBreaker.State.CLOSED, breaker.getState());
+
+        Deferred<String> slowCall = new Deferred<String>();
+        breaker.call(factoryFor(slowCall));
+        Thread.sleep(50);
+        slowCall.resolve("slow");
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testRefusedCallsAreNotReported() throws Exception {
+        final AtomicInteger fallbackErrorCount = new AtomicInteger();
+        Promise.setFallbackErrorHandler(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                fallbackErrorCount.incrementAndGet();
+            }
+        });
+
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(1, 1, 1000);
+        call(breaker, false);
+        assertEquals(PromiseCircuitBreaker.State.OPEN, breaker.getState());
+        int reportedCount = fallbackErrorCount.get();
+
+        // Refusing is cheap: The calls share one promise, which doesn't report its rejection
+        Promise<String> promise = call(breaker, true);
+        for (int i = 0; i < 100; i++) {
+            assertSame(promise, call(breaker, true));
+        }
+        assertEquals(reportedCount, fallbackErrorCount.get());
+
+        // Handlers attached later still get the rejection
+        final Throwable[] rejectCause = new Throwable[1];
+        promise.onError(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                rejectCause[0] = thr;
+            }
+        });
+        assertTrue(rejectCause[0] instanceof CircuitBreakerOpenException);
+    }
+
+    public void testInvalidArguments() {
+        assertInvalid(0, 0.5f, 0.5f, 100, 100, 1, 100);
+        assertInvalid(10, -0.1f, 0.5f, 100, 100, 1, 100);
+        assertInvalid(10, 1.1f, 0.5f, 100, 100, 1, 100);
+        assertInvalid(10, Float.NaN, 0.5f, 100, 100, 1, 100);
+        assertInvalid(10, 0.5f, 1.5f, 100, 100, 1, 100);
+        assertInvalid(10, 0.5f, 0.5f, -1, 100, 1, 100);
+        assertInvalid(10, 0.5f, 0.5f, 100, -1, 1, 100);
+        assertInvalid(10, 0.5f, 0.5f, 100, 100, 0, 100);
+        assertInvalid(10, 0.5f, 0.5f, 100, 100, 1, -1);
+    }
+
+    private static void assertInvalid(int windowSize, float failureRateThreshold, float slowCallRateThreshold,
+            long slowCallDurationMillis, long openDurationMillis, int halfOpenCallCount, long probeTimeoutMillis)
+    {
+        try {
+            new PromiseCircuitBreaker(windowSize, failureRateThreshold, slowCallRateThreshold, slowCallDurationMillis,
+                    openDurationMillis, halfOpenCallCount, probeTimeoutMillis);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException exc) {
+            // Expected
+        }
+    }
+
+    private Promise<String> call(PromiseCircuitBreaker breaker, final boolean succeed) {
+        return breaker.call(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() {
+                mFactoryCallCount++;
+                if (succeed) {
+                    return Promise.resolvedPromise("ok");
+                } else {
+                    return Promise.rejectedPromise(String.class, new Exception("Test"));
+                }
+            }
+        });
+    }
+
+    private static PromiseFactory<String> factoryFor(final Deferred<String> deferred) {
+        return new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() {
+                return deferred.getPromise();
+            }
+        };
+    }
+
+}
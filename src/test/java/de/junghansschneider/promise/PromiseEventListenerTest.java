@@ -0,0 +1,193 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PromiseEventListenerTest extends TestCase {
+
+    private RecordingListener mListener;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mListener = new RecordingListener();
+        Promise.setEventListener(mListener);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Promise.setEventListener(null);
+    }
+
+    public void testExecuteAndHandler() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            PromiseValueHandler<String> handler = new PromiseValueHandler<String>() {
+                @Override
+                public void onValue(String value) {
+                }
+            };
+            Promise<String> promise = new Promise<String>(executor) {
+                @Override
+                protected void execute(Resolver<String> resolver) {
+                    resolver.resolve("value");
+                }
+            };
+            promise.onValue(executor, handler);
+            promise.waitForResult(5000);
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+
+            assertTrue(mListener.events.contains("executeStarted"));
+            assertTrue(mListener.events.contains("executeFinished"));
+            assertTrue(mListener.events.contains("settled"));
+            assertTrue(mListener.events.contains("handlerFinished"));
+            assertSame(handler, mListener.lastHandler);
+            assertTrue(mListener.lastQueueDelayNanos >= 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testThenHandlerIsUnwrapped() throws Exception {
+        PromiseThenHandler<String, String> handler = new PromiseThenHandler<String, String>() {
+            @Override
+            public Promise<String> onValue(String value) {
+                return Promise.resolvedPromise(value);
+            }
+        };
+        Promise.resolvedPromise("value").then(handler).waitForResult(5000);
+        assertTrue(mListener.handlers.contains(handler));
+    }
+
+    public void testUnhandledRejection() throws Exception {
+        Exception exc = new Exception("Test error");
+        Deferred<String> deferred = new Deferred<String>();
+        Promise<String> promise = deferred.getPromise();
+        deferred.reject(exc);
+        assertSame(exc, mListener.lastUnhandledRejection);
+
+        mListener.lastUnhandledRejection = null;
+        Deferred<String> handledDeferred = new Deferred<String>();
+        handledDeferred.getPromise().onError(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+            }
+        });
+        handledDeferred.reject(exc);
+        assertNull(mListener.lastUnhandledRejection);
+        assertNotNull(promise.getRejectCause());
+    }
+
+    public void testCancelCascade() throws Exception {
+        Deferred<String> deferred = new Deferred<String>();
+        Promise<String> child = deferred.getPromise().then(new PromiseThenHandler<String, String>() {
+            @Override
+            public Promise<String> onValue(String value) {
+                return Promise.resolvedPromise(value);
+            }
+        });
+
+        assertTrue(child.cancel(true));
+        assertEquals(2, mListener.lastCancelledCount);
+        // Each promise settles once, although the parent's cancellation is forwarded to the cancelled child
+        assertEquals(1, mListener.getSettledCount(child));
+        assertEquals(1, mListener.getSettledCount(deferred.getPromise()));
+
+        assertFalse(child.cancel(true));
+        assertEquals(0, mListener.lastCancelledCount);
+    }
+
+
+    private static class RecordingListener implements PromiseEventListener {
+        final List<String> events = new ArrayList<String>();
+        final List<Object> handlers = new ArrayList<Object>();
+        final List<Promise<?>> settledPromises = new ArrayList<Promise<?>>();
+        volatile Object lastHandler;
+        volatile long lastQueueDelayNanos = -1;
+        volatile Throwable lastUnhandledRejection;
+        volatile int lastCancelledCount = -1;
+
+        private synchronized void record(String event) {
+            events.add(event);
+        }
+
+        @Override
+        public Object onExecuteStarted(Promise<?> promise) {
+            record("executeStarted");
+            return "execute";
+        }
+
+        @Override
+        public void onExecuteFinished(Promise<?> promise, Object context) {
+            assertEquals("execute", context);
+            record("executeFinished");
+        }
+
+        @Override
+        public Object onHandlerDispatched(Promise<?> promise, Object handler) {
+            record("handlerDispatched");
+            synchronized(this) {
+                handlers.add(handler);
+            }
+            lastHandler = handler;
+            return "handler";
+        }
+
+        @Override
+        public void onHandlerFinished(Promise<?> promise, Object context, long queueDelayNanos) {
+            assertEquals("handler", context);
+            record("handlerFinished");
+            lastQueueDelayNanos = queueDelayNanos;
+        }
+
+        @Override
+        public void onSettled(Promise<?> promise) {
+            record("settled");
+            synchronized(this) {
+                settledPromises.add(promise);
+            }
+        }
+
+        synchronized int getSettledCount(Promise<?> promise) {
+            int count = 0;
+            for (Promise<?> settledPromise : settledPromises) {
+                if (settledPromise == promise) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void onUnhandledRejection(Promise<?> promise, Throwable thr) {
+            lastUnhandledRejection = thr;
+        }
+
+        @Override
+        public Object onCancelStarted(Promise<?> promise) {
+            return "cancel";
+        }
+
+        @Override
+        public void onCancelFinished(Promise<?> promise, Object context, int cancelledCount) {
+            assertEquals("cancel", context);
+            lastCancelledCount = cancelledCount;
+        }
+    }
+
+}
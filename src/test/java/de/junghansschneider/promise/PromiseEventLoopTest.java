@@ -0,0 +1,157 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PromiseEventLoopTest extends TestCase {
+
+    private PromiseEventLoop mEventLoop;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mEventLoop = new PromiseEventLoop("test-event-loop");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mEventLoop.shutdown();
+    }
+
+    public void testOrderPerProducer() throws Exception {
+        final int producerCount = 4;
+        final int taskCount = 100000;
+        final int[] nextIndex = new int[producerCount];
+        final boolean[] failed = new boolean[] { false };
+        final CountDownLatch doneLatch = new CountDownLatch(producerCount * taskCount);
+
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int producer = 0; producer < producerCount; producer++) {
+            final int finalProducer = producer;
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < taskCount; i++) {
+                        final int index = i;
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (! mEventLoop.isLoopThread() || nextIndex[finalProducer] != index) {
+                                    failed[0] = true;
+                                }
+                                nextIndex[finalProducer]++;
+                                doneLatch.countDown();
+                            }
+                        });
+                        if (index % 10000 == 0) {
+                            // Let the loop go idle now and then
+                            Thread.yield();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        assertFalse(failed[0]);
+    }
+
+    public void testWakeUpAfterIdle() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(20);
+            final CountDownLatch doneLatch = new CountDownLatch(1);
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    doneLatch.countDown();
+                }
+            });
+            assertTrue(doneLatch.await(2, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testSubmitFromLoopThread() throws Exception {
+        final List<Integer> order = new ArrayList<Integer>();
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                order.add(1);
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add(3);
+                        doneLatch.countDown();
+                    }
+                });
+                order.add(2);
+            }
+        });
+
+        assertTrue(doneLatch.await(2, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, order.get(i).intValue());
+        }
+    }
+
+    public void testPromiseHandlers() throws Exception {
+        final boolean[] wasLoopThread = new boolean[] { false };
+        Promise<Integer> promise = new Promise<Integer>(mEventLoop) {
+            @Override
+            protected void execute(Resolver<Integer> resolver) {
+                resolver.resolve(1);
+            }
+        }
+        .then(mEventLoop, new PromiseThenHandler<Integer, Integer>() {
+            @Override
+            public Promise<Integer> onValue(Integer value) {
+                wasLoopThread[0] = mEventLoop.isLoopThread();
+                return Promise.resolvedPromise(value + 1);
+            }
+        });
+
+        assertEquals(2, promise.waitForResult(2000).intValue());
+        assertTrue(wasLoopThread[0]);
+    }
+
+    public void testShutdown() throws Exception {
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                doneLatch.countDown();
+            }
+        });
+        mEventLoop.shutdown();
+
+        assertTrue(mEventLoop.awaitTermination(2000));
+        assertEquals(0, doneLatch.getCount());
+        try {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException exc) {
+            // Expected
+        }
+    }
+
+}
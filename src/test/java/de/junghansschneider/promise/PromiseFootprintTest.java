@@ -0,0 +1,116 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+import org.openjdk.jol.vm.VirtualMachine;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Checks the heap footprint of pending promises using JOL.
+ *
+ * The limits are computed from the fields the objects may have, so they fit the object layout of the running VM. With
+ * compressed references they are 32, 96 and 104 bytes - before the compact layout a pending promise took 64 bytes,
+ * 208 bytes with an onValue and an onError handler and 384 bytes together with a then child.
+ */
+public class PromiseFootprintTest extends TestCase {
+
+    private static final PromiseValueHandler<String> VALUE_HANDLER = new PromiseValueHandler<String>() {
+        @Override
+        public void onValue(String value) {
+        }
+    };
+
+    private static final PromiseErrorHandler ERROR_HANDLER = new PromiseErrorHandler() {
+        @Override
+        public void onError(Throwable thr) {
+        }
+    };
+
+    private static final PromiseThenHandler<String, String> THEN_HANDLER = new PromiseThenHandler<String, String>() {
+        @Override
+        public Promise<String> onValue(String value) {
+            return Promise.resolvedPromise(value);
+        }
+    };
+
+
+    /** A pending promise: mResult, mHandlers, mAncestors, mExtras and mChildCount */
+    private static final long PROMISE_SIZE = objectSize(4, 1);
+    /** A Subscription: executor, handler, next and kinds */
+    private static final long SUBSCRIPTION_SIZE = objectSize(3, 1);
+    /** A ThenPromise: a promise with mNestedHandler */
+    private static final long THEN_PROMISE_SIZE = objectSize(5, 1);
+    /** A WeakReference: referent, queue, next and discovered */
+    private static final long WEAK_REFERENCE_SIZE = objectSize(4, 0);
+
+
+    public void testPendingPromise() {
+        assertFootprint("pending", PROMISE_SIZE, new PendingPromise());
+    }
+
+    public void testPendingPromiseWithHandlers() {
+        Promise<String> promise = new PendingPromise();
+        promise.onValue(VALUE_HANDLER).onError(ERROR_HANDLER);
+        assertFootprint("pending with onValue and onError", PROMISE_SIZE + 2 * SUBSCRIPTION_SIZE, promise);
+    }
+
+    public void testPendingPromiseWithThenChild() {
+        Promise<String> promise = new PendingPromise();
+        promise.then(THEN_HANDLER);
+        // The then child is the parent's only handler, and it references the parent weakly
+        assertFootprint("pending with then child", PROMISE_SIZE + THEN_PROMISE_SIZE + WEAK_REFERENCE_SIZE, promise);
+    }
+
+    public void testPendingPromiseResolvedWithPromise() {
+        Promise<String> promise = new PendingPromise();
+        PendingPromise child = new PendingPromise();
+        child.resolve(promise);
+        // Resolving with a promise subscribes one forwarding handler - progress is forwarded without extra objects
+        assertFootprint("pending resolved with promise", 2 * PROMISE_SIZE + objectSize(1, 0) + WEAK_REFERENCE_SIZE,
+                promise);
+    }
+
+    /**
+     * Returns the size of an object in the running VM.
+     *
+     * @param referenceCount the number of reference fields
+     * @param intCount the number of int fields
+     */
+    private static long objectSize(int referenceCount, int intCount) {
+        VirtualMachine vm = VM.current();
+        long size = vm.objectHeaderSize() + referenceCount * vm.sizeOfField("java.lang.Object") + intCount * 4;
+        long alignment = vm.objectAlignment();
+        return (size + alignment - 1) / alignment * alignment;
+    }
+
+    private static void assertFootprint(String description, long maxBytes, Promise<?> promise) {
+        // Don't count objects shared by all promises
+        GraphLayout sharedLayout = GraphLayout.parseInstance(Promise.State.values(), VALUE_HANDLER, ERROR_HANDLER,
+                THEN_HANDLER, new WeakReference<Object>(null));
+        long bytes = GraphLayout.parseInstance(promise).subtract(sharedLayout).totalSize();
+
+        assertTrue("Footprint of promise " + description + " is " + bytes + " bytes, expected at most " + maxBytes,
+                bytes <= maxBytes);
+    }
+
+
+    private static class PendingPromise extends Promise<String> {
+
+        PendingPromise() {
+            super(null, false);
+        }
+
+        @Override
+        protected void execute(Resolver<String> resolver) {
+        }
+
+    }
+
+}
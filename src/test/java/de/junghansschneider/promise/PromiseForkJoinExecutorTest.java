@@ -0,0 +1,104 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public class PromiseForkJoinExecutorTest extends TestCase {
+
+    private PromiseForkJoinExecutor mExecutor;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = new PromiseForkJoinExecutor(new ForkJoinPool(2));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mExecutor.getPool().shutdown();
+    }
+
+    public void testRecursiveBlockingWait() throws Exception {
+        // Each level blocks on its children. With only two workers this would dead-lock without helping.
+        assertEquals(sumRange(0, 100000), blockingSum(0, 100000).waitForResult(10000).longValue());
+    }
+
+    public void testRecursiveAll() throws Exception {
+        assertEquals(sumRange(0, 100000), allSum(0, 100000).waitForResult(10000).longValue());
+    }
+
+    public void testTimedAwaitOnWorker() throws Exception {
+        Promise<Long> promise = new Promise<Long>(mExecutor) {
+            @Override
+            protected void execute(Resolver<Long> resolver) throws Exception {
+                Promise<String> slowChild = new Promise<String>(mExecutor) {
+                    @Override
+                    protected void execute(Resolver<String> resolver) throws Exception {
+                        Thread.sleep(1000);
+                        resolver.resolve("slow");
+                    }
+                };
+
+                // Helping would run the slow child right here, ignoring the timeout
+                long startTime = System.nanoTime();
+                assertFalse(slowChild.await(50, TimeUnit.MILLISECONDS));
+                resolver.resolve(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
+        };
+        assertTrue(promise.waitForResult(5000) < 500);
+    }
+
+    private Promise<Long> blockingSum(final int from, final int to) {
+        return new Promise<Long>(mExecutor) {
+            @Override
+            protected void execute(Resolver<Long> resolver) throws Exception {
+                if (to - from <= 16) {
+                    resolver.resolve(sumRange(from, to));
+                } else {
+                    int middle = (from + to) >>> 1;
+                    Promise<Long> left = blockingSum(from, middle);
+                    Promise<Long> right = blockingSum(middle, to);
+                    resolver.resolve(left.waitForResult() + right.waitForResult());
+                }
+            }
+        };
+    }
+
+    private Promise<Long> allSum(final int from, final int to) {
+        return new Promise<Long>(mExecutor) {
+            @Override
+            protected void execute(Resolver<Long> resolver) {
+                if (to - from <= 16) {
+                    resolver.resolve(sumRange(from, to));
+                } else {
+                    int middle = (from + to) >>> 1;
+                    resolver.resolve(Promise.all(allSum(from, middle), allSum(middle, to))
+                            .then(mExecutor, new PromiseThenHandler<Object[], Long>() {
+                                @Override
+                                public Promise<Long> onValue(Object[] values) {
+                                    return Promise.resolvedPromise((Long) values[0] + (Long) values[1]);
+                                }
+                            }));
+                }
+            }
+        };
+    }
+
+    private static long sumRange(int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += i;
+        }
+        return sum;
+    }
+
+}
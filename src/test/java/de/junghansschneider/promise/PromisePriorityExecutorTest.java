@@ -0,0 +1,148 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PromisePriorityExecutorTest extends TestCase {
+
+    private PromisePriorityExecutor mExecutor;
+    private CountDownLatch mBlockLatch;
+    private List<String> mOrder;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = new PromisePriorityExecutor(1, 10);
+        mOrder = new ArrayList<String>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(2000));
+    }
+
+    public void testPriorityOrder() throws Exception {
+        blockWorker();
+        mExecutor.execute(createTask("low"), 0);
+        mExecutor.execute(createTask("high"), 5);
+        mExecutor.execute(createTask("medium"), 1);
+        mExecutor.execute(createTask("plain"));
+
+        assertEquals(Arrays.asList("high", "medium", "low", "plain"), runQueuedTasks());
+    }
+
+    public void testAging() throws Exception {
+        blockWorker();
+        mExecutor.execute(createTask("old"), 0);
+        // Waiting 100 ms ages a task by 10 priority levels
+        Thread.sleep(100);
+        mExecutor.execute(createTask("new"), 3);
+
+        assertEquals(Arrays.asList("old", "new"), runQueuedTasks());
+    }
+
+    public void testPromisePriority() throws Exception {
+        blockWorker();
+        Promise<String> lowPromise = createLazyPromise("low").setPriority(1);
+        Promise<String> highPromise = createLazyPromise("high").setPriority(9);
+
+        Promise<String> childPromise = highPromise.then(mExecutor, new PromiseThenHandler<String, String>() {
+            @Override
+            public Promise<String> onValue(String value) {
+                return Promise.resolvedPromise(value + "-child");
+            }
+        });
+        assertEquals(9, childPromise.getPriority());
+        lowPromise.onValue(new PromiseValueHandler<String>() {
+            @Override
+            public void onValue(String value) {
+            }
+        });
+
+        assertEquals(Arrays.asList("high", "low"), runQueuedTasks());
+        assertEquals("high-child", childPromise.waitForResult(1000));
+    }
+
+    public void testAllTakesHighestPriority() {
+        Promise<String> highPromise = new Deferred<String>().getPromise().setPriority(9);
+        Promise<String> lowPromise = new Deferred<String>().getPromise().setPriority(1);
+        Promise<String> defaultPromise = new Deferred<String>().getPromise();
+
+        // The input registered last doesn't win
+        assertEquals(9, Promise.all(highPromise, lowPromise, defaultPromise).getPriority());
+        assertEquals(9, Promise.all(lowPromise, highPromise).getPriority());
+
+        Promise<String> negativePromise = new Deferred<String>().getPromise().setPriority(-5);
+        assertEquals(-5, Promise.all(negativePromise, "value").getPriority());
+        assertEquals(0, Promise.all(negativePromise, defaultPromise).getPriority());
+    }
+
+    private void blockWorker() throws InterruptedException {
+        mBlockLatch = new CountDownLatch(1);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    mBlockLatch.await();
+                } catch (InterruptedException exc) {
+                    // Go on
+                }
+            }
+        });
+        assertTrue(startedLatch.await(2, TimeUnit.SECONDS));
+    }
+
+    private List<String> runQueuedTasks() throws InterruptedException {
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doneLatch.countDown();
+            }
+        }, Integer.MIN_VALUE / 1000);
+        mBlockLatch.countDown();
+        assertTrue(doneLatch.await(2, TimeUnit.SECONDS));
+        synchronized(mOrder) {
+            return new ArrayList<String>(mOrder);
+        }
+    }
+
+    private Runnable createTask(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized(mOrder) {
+                    mOrder.add(name);
+                }
+            }
+        };
+    }
+
+    private Promise<String> createLazyPromise(final String name) {
+        return new Promise<String>(mExecutor, Promise.ExecutionMode.LAZY) {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                synchronized(mOrder) {
+                    mOrder.add(name);
+                }
+                resolver.resolve(name);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,94 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PromiseRateLimiterTest extends TestCase {
+
+    public void testRate() throws Exception {
+        PromiseRateLimiter rateLimiter = new PromiseRateLimiter(20, 2);
+        final List<Long> callTimes = new ArrayList<Long>();
+
+        long startTime = System.nanoTime();
+        List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            promises.add(rateLimiter.throttle(new PromiseFactory<Integer>() {
+                @Override
+                public Promise<Integer> create() {
+                    synchronized(callTimes) {
+                        callTimes.add(System.nanoTime());
+                    }
+                    return Promise.resolvedPromise(value);
+                }
+            }));
+        }
+
+        // The burst is used up right away, the rest has to wait
+        assertEquals(3, rateLimiter.getQueueLength());
+
+        assertTrue(Promise.awaitAll(promises, 5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, promises.get(i).getValue().intValue());
+        }
+
+        // 3 calls after the burst need at least 3 * 50 ms
+        long lastCallMillis = TimeUnit.NANOSECONDS.toMillis(callTimes.get(4) - startTime);
+        assertTrue("Last call after " + lastCallMillis + " ms", lastCallMillis >= 140);
+    }
+
+    public void testCancelWaiting() throws Exception {
+        PromiseRateLimiter rateLimiter = new PromiseRateLimiter(10, 1);
+        final boolean[] factoryCalled = new boolean[] { false, false };
+
+        Promise<String> promise1 = rateLimiter.throttle(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() {
+                factoryCalled[0] = true;
+                return Promise.resolvedPromise("first");
+            }
+        });
+        Promise<String> promise2 = rateLimiter.throttle(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() {
+                factoryCalled[1] = true;
+                return Promise.resolvedPromise("second");
+            }
+        });
+
+        assertEquals(1, rateLimiter.getQueueLength());
+        assertTrue(promise2.cancel());
+        assertEquals(0, rateLimiter.getQueueLength());
+
+        assertEquals("first", promise1.waitForResult(1000));
+        Thread.sleep(200);
+        assertTrue(factoryCalled[0]);
+        assertFalse(factoryCalled[1]);
+    }
+
+    public void testFactoryError() throws Exception {
+        PromiseRateLimiter rateLimiter = new PromiseRateLimiter(10, 1);
+        Promise<String> promise = rateLimiter.throttle(new PromiseFactory<String>() {
+            @Override
+            public Promise<String> create() throws Exception {
+                throw new Exception("Test");
+            }
+        });
+
+        try {
+            promise.waitForResult(1000);
+            fail("Exception expected");
+        } catch (Exception exc) {
+            assertEquals("Test", exc.getMessage());
+        }
+    }
+
+}
@@ -8,12 +8,17 @@ package de.junghansschneider.promise;
 
 import junit.framework.TestCase;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class PromiseTest extends TestCase {
 
@@ -81,6 +86,14 @@ public class PromiseTest extends TestCase {
         return Thread.currentThread().getName().equals("test-background");
     }
 
+    private static void drainExecutor(ExecutorService executor) throws Exception {
+        // Handlers on other executors may still be queued when a chain settles
+        executor.submit(new Runnable() {
+            public void run() {
+            }
+        }).get(2, TimeUnit.SECONDS);
+    }
+
 
     private void examples() {
         // Normal chain, different handler types
@@ -491,7 +504,7 @@ public class PromiseTest extends TestCase {
         assertTrue(wasHandled[0]);
     }
 
-    public void testExecutors() {
+    public void testExecutors() throws Exception {
         final boolean[] wasRightExecutor = new boolean[] { false, false, false, false, false };
 
         Promise<Long> promise
@@ -534,6 +547,8 @@ public class PromiseTest extends TestCase {
         } catch (Exception exc) {
             assertEquals("Test exception", exc.getMessage());
         }
+        drainExecutor(getBgExecutor());
+        drainExecutor(getUiExecutor());
 
         assertTrue(wasRightExecutor[0]);
         assertTrue(wasRightExecutor[1]);
@@ -542,7 +557,7 @@ public class PromiseTest extends TestCase {
         assertTrue(wasRightExecutor[4]);
     }
 
-    public void testDefaultExecutor() {
+    public void testDefaultExecutor() throws Exception {
         final boolean[] wasRightExecutor = new boolean[] { false, false, false, false, false, false, false };
 
         Promise.setDefaultExecutor(getUiExecutor());
@@ -599,6 +614,8 @@ public class PromiseTest extends TestCase {
         } catch (Exception exc) {
             assertEquals("Test exception", exc.getMessage());
         }
+        drainExecutor(getBgExecutor());
+        drainExecutor(getUiExecutor());
 
         assertTrue(wasRightExecutor[0]);
         assertTrue(wasRightExecutor[1]);
@@ -736,6 +753,39 @@ public class PromiseTest extends TestCase {
         assertTrue(handlerCalled[0]);
     }
 
+    public void testAllAlreadyRejected() throws Exception {
+        Promise<Integer> rejectedPromise = Promise.rejectedPromise(Integer.class, new RuntimeException("Test"));
+        rejectedPromise.onError(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+            }
+        });
+
+        Promise<Object[]> outerPromise = Promise.all("Hallo", Promise.resolvedPromise(1234), rejectedPromise);
+        assertTrue(outerPromise.isFinished());
+        assertEquals("Test", outerPromise.getRejectCause().getMessage());
+    }
+
+    public void testAllItemArrivingDuringRegistration() throws Exception {
+        // The lazy promise starts when all subscribes to it - so it settles while all still registers its items
+        Promise<String> first = new Promise<String>(null, Promise.ExecutionMode.LAZY) {
+            @Override
+            protected void execute(Promise.Resolver<String> resolver) {
+                resolver.resolve("first");
+            }
+        };
+        Deferred<String> second = new Deferred<String>();
+
+        Promise<Object[]> outerPromise = Promise.all(first, second.getPromise());
+        assertTrue(first.isFinished());
+        assertFalse(outerPromise.isFinished());
+
+        second.resolve("second");
+        Object[] values = outerPromise.waitForResult(1000);
+        assertEquals("first", values[0]);
+        assertEquals("second", values[1]);
+    }
+
     public void testAllCancelForward() {
         final boolean[] handledCancel = new boolean[] { false };
 
@@ -813,6 +863,484 @@ public class PromiseTest extends TestCase {
         assertTrue(lastPromise.isCancelled());
     }
 
+    public void testCancelSharedAncestor() {
+        Promise<String> sharedPromise = waitForever(String.class);
+        Promise<String> child1 = sharedPromise.then(createPipeThenHandler(String.class));
+        Promise<String> child2 = sharedPromise.then(createPipeThenHandler(String.class));
+
+        child1.cancel(true);
+
+        assertTrue(child1.isCancelled());
+        assertFalse(sharedPromise.isFinished());
+        assertFalse(child2.isFinished());
+
+        child2.cancel(true);
+
+        assertTrue(child2.isCancelled());
+        assertTrue(sharedPromise.isCancelled());
+    }
+
+    public void testCancelSharedAncestorOfSettledChild() {
+        Promise<String> sharedPromise = waitForever(String.class);
+        Deferred<String> failing = new Deferred<String>();
+        Promise<Object[]> allPromise = Promise.all(sharedPromise, failing.getPromise());
+        Promise<String> child = sharedPromise.then(createPipeThenHandler(String.class));
+
+        // The all promise settles without being cancelled -> It's no child of the shared promise anymore
+        failing.reject(new IllegalStateException("Test"));
+        assertTrue(allPromise.isFinished());
+        assertFalse(sharedPromise.isFinished());
+
+        child.cancel(true);
+
+        assertTrue(child.isCancelled());
+        assertTrue(sharedPromise.isCancelled());
+    }
+
+    public void testCancelChainFiresHandlersOnce() {
+        final int[] alwaysCount = new int[] { 0 };
+        final int[] fallbackCount = new int[] { 0 };
+        Promise.setFallbackErrorHandler(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+                fallbackCount[0]++;
+            }
+        });
+
+        Promise<String> child = waitForever(String.class).then(createPipeThenHandler(String.class));
+        child.always(new Runnable() {
+            @Override
+            public void run() {
+                alwaysCount[0]++;
+            }
+        });
+
+        // Cancelling the parent rejects the already cancelled child once more - this must not fire it again
+        assertTrue(child.cancel(true));
+        assertEquals(1, alwaysCount[0]);
+        assertEquals(1, fallbackCount[0]);
+    }
+
+    public void testCancelLongChain() {
+        Promise<String> firstPromise = waitForever(String.class);
+        Promise<String> lastPromise = firstPromise;
+        for (int i = 0; i < 100000; i++) {
+            lastPromise = lastPromise.then(createPipeThenHandler(String.class));
+        }
+
+        assertTrue(lastPromise.cancel(true));
+        assertTrue(firstPromise.isCancelled());
+        assertFalse(lastPromise.cancel(true));
+    }
+
+    public void testCancelHandler() {
+        final boolean[] handlerCalled = new boolean[] { false, false };
+        final Promise.Resolver<?>[] resolverHolder = new Promise.Resolver[1];
+        Promise<String> promise = new Promise<String>() {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                resolverHolder[0] = resolver;
+                resolver.onCancel(new Runnable() {
+                    @Override
+                    public void run() {
+                        handlerCalled[0] = true;
+                    }
+                });
+            }
+        };
+
+        assertFalse(handlerCalled[0]);
+        promise.cancel();
+        assertTrue(handlerCalled[0]);
+
+        resolverHolder[0].onCancel(new Runnable() {
+            @Override
+            public void run() {
+                handlerCalled[1] = true;
+            }
+        });
+        assertTrue(handlerCalled[1]);
+    }
+
+    public void testInterruptOnCancel() throws Exception {
+        final CountDownLatch executeStarted = new CountDownLatch(1);
+        final boolean[] wasInterrupted = new boolean[] { false, true };
+        Promise<String> promise = new Promise<String>(getBgExecutor()) {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                resolver.setInterruptOnCancel(true);
+                executeStarted.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException exc) {
+                    wasInterrupted[0] = true;
+                }
+            }
+        };
+
+        assertTrue(executeStarted.await(2, TimeUnit.SECONDS));
+        promise.cancel();
+
+        new Promise<String>(getBgExecutor()) {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                wasInterrupted[1] = Thread.currentThread().isInterrupted();
+                resolver.resolve("done");
+            }
+        }.waitForResult(2000);
+
+        assertTrue(wasInterrupted[0]);
+        assertFalse(wasInterrupted[1]);
+    }
+
+    public void testAwait() throws Exception {
+        Promise<String> pendingPromise = waitForever(String.class);
+        long startTime = System.nanoTime();
+        assertFalse(pendingPromise.await(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        try {
+            pendingPromise.waitForResult(10);
+            fail("TimeoutException expected");
+        } catch (TimeoutException exc) {
+            // Expected
+        }
+
+        final Deferred<String> deferred = new Deferred<String>();
+        getBgExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException exc) {
+                }
+                deferred.resolve("Hallo");
+            }
+        });
+        assertTrue(deferred.getPromise().await(5, TimeUnit.SECONDS));
+        assertEquals("Hallo", deferred.getPromise().getValue());
+    }
+
+    public void testAwaitUninterruptibly() {
+        final Deferred<String> deferred = new Deferred<String>();
+        getBgExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException exc) {
+                }
+                deferred.resolve("Hallo");
+            }
+        });
+
+        Thread.currentThread().interrupt();
+        deferred.getPromise().awaitUninterruptibly();
+        assertTrue(Thread.interrupted());
+        assertEquals("Hallo", deferred.getPromise().join());
+    }
+
+    public void testJoin() {
+        Promise<String> promise = new Promise<String>(getBgExecutor()) {
+            @Override
+            protected void execute(Resolver<String> resolver) throws Exception {
+                throw new IOException("Test");
+            }
+        };
+
+        try {
+            promise.join();
+            fail("Exception expected");
+        } catch (Exception exc) {
+            assertTrue(exc instanceof IOException);
+            assertEquals("Test", exc.getMessage());
+        }
+    }
+
+    public void testAwaitAll() throws Exception {
+        List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            promises.add(new Promise<Integer>(getBgExecutor()) {
+                @Override
+                protected void execute(Resolver<Integer> resolver) {
+                    resolver.resolve(value);
+                }
+            });
+        }
+        promises.add(Promise.resolvedPromise(1000));
+
+        assertTrue(Promise.awaitAll(promises, 5, TimeUnit.SECONDS));
+        for (int i = 0; i < promises.size(); i++) {
+            assertEquals(i, promises.get(i).getValue().intValue());
+        }
+
+        promises.add(waitForever(Integer.class));
+        assertFalse(Promise.awaitAll(promises, 50, TimeUnit.MILLISECONDS));
+        assertTrue(Promise.awaitAll(new ArrayList<Promise<?>>(), 50, TimeUnit.MILLISECONDS));
+    }
+
+    public void testAwaitAny() throws Exception {
+        List<Promise<String>> promises = new ArrayList<Promise<String>>();
+        promises.add(waitForever(String.class));
+        assertNull(Promise.awaitAny(promises, 50, TimeUnit.MILLISECONDS));
+
+        final Deferred<String> deferred = new Deferred<String>();
+        promises.add(deferred.getPromise());
+        promises.add(waitForever(String.class));
+        getBgExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException exc) {
+                }
+                deferred.resolve("Hallo");
+            }
+        });
+
+        assertSame(deferred.getPromise(), Promise.awaitAny(promises, 5, TimeUnit.SECONDS));
+        assertSame(deferred.getPromise(), Promise.awaitAny(promises));
+    }
+
+    public void testProgress() throws Exception {
+        final CountDownLatch uiBlocked = new CountDownLatch(1);
+        getUiExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    uiBlocked.await();
+                } catch (InterruptedException exc) {
+                }
+            }
+        });
+
+        final List<Object> progressList = new ArrayList<Object>();
+        Deferred<String> deferred = new Deferred<String>();
+        Promise<String> promise = deferred.getPromise()
+                .onProgress(getUiExecutor(), new PromiseProgressHandler() {
+                    @Override
+                    public void onProgress(Object progress) {
+                        progressList.add(progress);
+                    }
+                });
+
+        for (int i = 1; i <= 1000; i++) {
+            deferred.notifyProgress(i);
+        }
+        uiBlocked.countDown();
+        drainExecutor(getUiExecutor());
+
+        assertEquals(Arrays.<Object>asList(1000), progressList);
+
+        deferred.notifyProgress(1001);
+        deferred.resolve("done");
+        deferred.notifyProgress(1002);
+        drainExecutor(getUiExecutor());
+
+        assertEquals(Arrays.<Object>asList(1000, 1001), progressList);
+        assertEquals("done", promise.getValue());
+    }
+
+    public void testSequence() throws Exception {
+        List<PromiseFactory<Integer>> factories = new ArrayList<PromiseFactory<Integer>>();
+        final List<Integer> callOrder = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            factories.add(new PromiseFactory<Integer>() {
+                @Override
+                public Promise<Integer> create() {
+                    callOrder.add(value);
+                    return new Promise<Integer>(getBgExecutor()) {
+                        @Override
+                        protected void execute(Resolver<Integer> resolver) {
+                            resolver.resolve(value * 10);
+                        }
+                    };
+                }
+            });
+        }
+
+        List<Integer> values = Promise.sequence(factories).waitForResult(1000);
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40), values);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), callOrder);
+    }
+
+    public void testForEachSeqStackSafe() throws Exception {
+        // Resolved promises and the synchronous default executor let every step finish while it's started
+        final int[] count = new int[] { 0 };
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            items.add(i);
+        }
+
+        Promise<Void> promise = Promise.forEachSeq(items, new PromiseThenHandler<Integer, Object>() {
+            @Override
+            public Promise<Object> onValue(Integer item) {
+                count[0]++;
+                return Promise.resolvedPromise(null);
+            }
+        });
+        assertTrue(promise.isFinished());
+        assertNull(promise.getRejectCause());
+        assertEquals(100000, count[0]);
+    }
+
+    public void testFoldSeq() throws Exception {
+        List<Integer> items = Arrays.asList(1, 2, 3, 4);
+        Promise<Integer> promise = Promise.foldSeq(items, 100, new PromiseFoldHandler<Integer, Integer>() {
+            @Override
+            public Promise<Integer> onItem(Integer sum, Integer item) {
+                return Promise.resolvedPromise(sum + item);
+            }
+        });
+        assertEquals(110, promise.waitForResult(1000).intValue());
+
+        Promise<Integer> emptyPromise = Promise.foldSeq(new ArrayList<Integer>(), 100,
+                new PromiseFoldHandler<Integer, Integer>() {
+                    @Override
+                    public Promise<Integer> onItem(Integer sum, Integer item) {
+                        throw new IllegalStateException("No items expected");
+                    }
+                });
+        assertEquals(100, emptyPromise.waitForResult(1000).intValue());
+    }
+
+    public void testSequenceErrorAndCancel() throws Exception {
+        final List<Integer> calledItems = new ArrayList<Integer>();
+        Promise<Void> promise = Promise.forEachSeq(Arrays.asList(1, 2, 3), new PromiseThenHandler<Integer, Object>() {
+            @Override
+            public Promise<Object> onValue(Integer item) throws Exception {
+                calledItems.add(item);
+                if (item == 2) {
+                    throw new IOException("Test");
+                }
+                return Promise.resolvedPromise(null);
+            }
+        });
+        assertTrue(promise.getRejectCause() instanceof IOException);
+        assertEquals(Arrays.asList(1, 2), calledItems);
+
+        final Deferred<Object> step = new Deferred<Object>();
+        calledItems.clear();
+        promise = Promise.forEachSeq(Arrays.asList(1, 2), new PromiseThenHandler<Integer, Object>() {
+            @Override
+            public Promise<Object> onValue(Integer item) {
+                calledItems.add(item);
+                return step.getPromise();
+            }
+        });
+        assertTrue(promise.cancel());
+        assertTrue(step.getPromise().isCancelled());
+        assertEquals(Arrays.asList(1), calledItems);
+    }
+
+    public void testLazy() throws Exception {
+        final int[] executeCount = new int[] { 0 };
+        Promise<String> promise = createLazyPromise(executeCount);
+        assertEquals(0, executeCount[0]);
+
+        Promise<String> childPromise = promise.then(createPipeThenHandler(String.class));
+        assertEquals(1, executeCount[0]);
+        assertEquals("lazy", childPromise.waitForResult(1000));
+
+        promise.onValue(new PromiseValueHandler<String>() {
+            @Override
+            public void onValue(String value) {
+            }
+        });
+        assertEquals(1, executeCount[0]);
+    }
+
+    public void testLazyWait() throws Exception {
+        final int[] executeCount = new int[] { 0 };
+        Promise<String> promise = createLazyPromise(executeCount);
+        assertEquals(0, executeCount[0]);
+        assertEquals("lazy", promise.waitForResult(1000));
+        assertEquals(1, executeCount[0]);
+    }
+
+    public void testLazyCancelled() throws Exception {
+        final int[] executeCount = new int[] { 0 };
+        Promise<String> promise = createLazyPromise(executeCount);
+        assertTrue(promise.cancel());
+
+        promise.onError(new PromiseErrorHandler() {
+            @Override
+            public void onError(Throwable thr) {
+            }
+        });
+        assertTrue(promise.isCancelled());
+        assertEquals(0, executeCount[0]);
+    }
+
+    private static Promise<String> createLazyPromise(final int[] executeCount) {
+        return new Promise<String>(null, Promise.ExecutionMode.LAZY) {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                executeCount[0]++;
+                resolver.resolve("lazy");
+            }
+        };
+    }
+
+    public void testDeadline() throws Exception {
+        final long[] remainingNanos = new long[] { 0 };
+        Promise<String> promise = new Promise<String>(null, Promise.ExecutionMode.LAZY) {
+            @Override
+            protected void execute(Resolver<String> resolver) {
+                remainingNanos[0] = resolver.getRemainingNanos();
+                resolver.resolve("in time");
+            }
+        };
+        assertEquals(Long.MAX_VALUE, promise.getRemainingNanos());
+        promise.setDeadline(10, TimeUnit.SECONDS);
+        // A later deadline doesn't replace an earlier one
+        promise.setDeadline(20, TimeUnit.SECONDS);
+
+        assertEquals("in time", promise.waitForResult(1000));
+        assertTrue(remainingNanos[0] > TimeUnit.SECONDS.toNanos(9));
+        assertTrue(remainingNanos[0] <= TimeUnit.SECONDS.toNanos(10));
+    }
+
+    public void testDeadlinePassedBeforeExecute() throws Exception {
+        final int[] executeCount = new int[] { 0 };
+        Promise<String> promise = createLazyPromise(executeCount).setDeadline(10, TimeUnit.MILLISECONDS);
+        Thread.sleep(30);
+
+        try {
+            promise.waitForResult(1000);
+            fail("TimeoutException expected");
+        } catch (TimeoutException exc) {
+            // Expected
+        }
+        assertEquals(0, executeCount[0]);
+    }
+
+    public void testDeadlineInheritance() throws Exception {
+        Deferred<String> deferred = new Deferred<String>();
+        deferred.getPromise().setDeadline(20, TimeUnit.MILLISECONDS);
+        final boolean[] handlerCalled = new boolean[] { false };
+        Promise<String> childPromise = deferred.getPromise().then(new PromiseThenHandler<String, String>() {
+            @Override
+            public Promise<String> onValue(String value) {
+                handlerCalled[0] = true;
+                return Promise.resolvedPromise(value);
+            }
+        });
+        assertTrue(childPromise.getRemainingNanos() <= TimeUnit.MILLISECONDS.toNanos(20));
+
+        Deferred<String> otherDeferred = new Deferred<String>();
+        otherDeferred.getPromise().setDeadline(10, TimeUnit.SECONDS);
+        Promise<Object[]> allPromise = Promise.all(otherDeferred.getPromise(), deferred.getPromise());
+        assertTrue(allPromise.getRemainingNanos() <= TimeUnit.MILLISECONDS.toNanos(20));
+
+        Thread.sleep(40);
+        deferred.resolve("too late");
+        assertTrue(childPromise.getRejectCause() instanceof TimeoutException);
+        assertFalse(handlerCalled[0]);
+    }
+
     public void testDynamicChain() throws Throwable {
         Promise promise = loadParkings(10, 30);
         @SuppressWarnings("unchecked")
@@ -0,0 +1,165 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PromiseTraceRecorderTest extends TestCase {
+
+    private PromiseTraceRecorder mRecorder;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecorder = new PromiseTraceRecorder();
+        Promise.setTraceRecorder(mRecorder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Promise.setTraceRecorder(null);
+    }
+
+    public void testCriticalPathOfAll() throws Exception {
+        Promise<String> fast = Promise.resolvedPromise("fast");
+        PromiseTraceRecorder.setName(fast, "fast");
+        Promise<String> medium = createDelayedPromise("medium", 20);
+        Promise<String> slow = createDelayedPromise("slow", 80);
+        Promise<Object[]> all = Promise.all(fast, medium, slow);
+        PromiseTraceRecorder.setName(all, "all");
+        Promise<String> root = all.then(new PromiseThenHandler<Object[], String>() {
+            @Override
+            public Promise<String> onValue(Object[] values) {
+                return Promise.resolvedPromise("done");
+            }
+        });
+        PromiseTraceRecorder.setName(root, "root");
+        root.waitForResult(5000);
+
+        PromiseTraceRecorder.CriticalPath criticalPath = mRecorder.analyze(root);
+        List<PromiseTraceRecorder.Stage> path = criticalPath.getStages();
+        // The path continues from the "done" promise returned by the handler to the input of its creator
+        assertEquals(4, path.size());
+        assertEquals("slow", path.get(0).getName());
+        assertEquals("all", path.get(1).getName());
+        assertSame(path.get(3), path.get(2).getCreator());
+        assertEquals("root", path.get(3).getName());
+        assertTrue(criticalPath.getDuration(TimeUnit.MILLISECONDS) >= 80);
+
+        PromiseTraceRecorder.Stage slowStage = path.get(0);
+        PromiseTraceRecorder.Stage mediumStage = findStage(criticalPath, "medium");
+        PromiseTraceRecorder.Stage fastStage = findStage(criticalPath, "fast");
+        assertEquals(0, criticalPath.getSlackNanos(slowStage));
+        assertFalse(criticalPath.isCritical(mediumStage));
+        assertTrue(criticalPath.getSlackNanos(mediumStage) >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(criticalPath.getSlackNanos(fastStage) > criticalPath.getSlackNanos(mediumStage));
+        assertEquals("resolved", slowStage.getOutcome());
+    }
+
+    public void testCriticalPathThroughResolvedPromise() throws Exception {
+        final Promise<String> first = createDelayedPromise("first", 10);
+        Promise<String> root = first.then(new PromiseThenHandler<String, String>() {
+            @Override
+            public Promise<String> onValue(String value) {
+                return createDelayedPromise("inner", 30);
+            }
+        });
+        root.waitForResult(5000);
+
+        List<PromiseTraceRecorder.Stage> path = mRecorder.analyze(root).getStages();
+        assertEquals(3, path.size());
+        assertEquals("first", path.get(0).getName());
+        assertEquals("inner", path.get(1).getName());
+        assertTrue(path.get(2).getStartedNanos() >= path.get(0).getSettledNanos());
+    }
+
+    public void testChromeTrace() throws Exception {
+        Promise<Object[]> root = Promise.all(createDelayedPromise("a \"quoted\" name", 10),
+                createDelayedPromise("b", 20));
+        root.waitForResult(5000);
+
+        StringWriter out = new StringWriter();
+        mRecorder.writeChromeTrace(root, out);
+        String json = out.toString();
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.contains("\"name\":\"b\",\"cat\":\"critical\""));
+        assertTrue(json.contains("\"name\":\"a \\\"quoted\\\" name\",\"cat\":\"promise\""));
+        assertTrue(json.contains("\"ph\":\"s\""));
+        assertTrue(json.contains("\"ph\":\"f\""));
+        assertTrue(json.trim().endsWith("}"));
+    }
+
+    public void testChromeTraceWithPendingPromise() throws Exception {
+        Deferred<String> pending = new Deferred<String>();
+        PromiseTraceRecorder.setName(pending.getPromise(), "pending");
+        Deferred<String> failing = new Deferred<String>();
+        Promise<Object[]> root = Promise.all(pending.getPromise(), failing.getPromise());
+        Thread.sleep(5);
+        failing.reject(new IllegalStateException("Test"));
+        assertTrue(root.isFinished());
+        assertFalse(pending.getPromise().isFinished());
+
+        StringWriter out = new StringWriter();
+        mRecorder.writeChromeTrace(root, out);
+        String json = out.toString();
+        assertTrue(json.contains("\"name\":\"pending\""));
+        assertTrue(json.contains("\"outcome\":\"pending\""));
+        assertFalse(json.contains("\"outcome\":\"null\""));
+        assertFalse(json.contains("\"dur\":-"));
+        assertFalse(json.contains("\"ts\":-"));
+    }
+
+    public void testUnrecordedAndUnsettledPromises() throws Exception {
+        Promise.setTraceRecorder(null);
+        Promise<String> unrecorded = Promise.resolvedPromise("value");
+        try {
+            mRecorder.analyze(unrecorded);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException exc) {
+            // Expected
+        }
+
+        Promise.setTraceRecorder(mRecorder);
+        Deferred<String> deferred = new Deferred<String>();
+        try {
+            mRecorder.analyze(deferred.getPromise());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException exc) {
+            // Expected
+        }
+        deferred.resolve("value");
+        assertEquals(1, mRecorder.analyze(deferred.getPromise()).getStages().size());
+    }
+
+    private static Promise<String> createDelayedPromise(final String name, long delayMillis) {
+        final Deferred<String> deferred = new Deferred<String>();
+        PromiseTraceRecorder.setName(deferred.getPromise(), name);
+        Promise.getDefaultScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                deferred.resolve(name);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return deferred.getPromise();
+    }
+
+    private static PromiseTraceRecorder.Stage findStage(PromiseTraceRecorder.CriticalPath criticalPath, String name) {
+        for (PromiseTraceRecorder.Stage stage : criticalPath.getAllStages()) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        fail("No stage named " + name);
+        return null;
+    }
+
+}
@@ -0,0 +1,54 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+public class ByteBufferPoolTest extends TestCase {
+
+    public void testReuse() {
+        ByteBufferPool pool = new ByteBufferPool(64, 2);
+
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(64, buffer.capacity());
+        buffer.put((byte) 1);
+        buffer.flip();
+
+        pool.release(buffer);
+        assertEquals(1, pool.getPooledCount());
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(64, reused.limit());
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    public void testMaxPooledCount() {
+        ByteBufferPool pool = new ByteBufferPool(64, 2);
+        ByteBuffer buffer1 = pool.acquire();
+        ByteBuffer buffer2 = pool.acquire();
+        ByteBuffer buffer3 = pool.acquire();
+
+        pool.release(buffer1);
+        pool.release(buffer2);
+        pool.release(buffer3);
+        assertEquals(2, pool.getPooledCount());
+    }
+
+    public void testForeignBuffersAreIgnored() {
+        ByteBufferPool pool = new ByteBufferPool(64, 2);
+
+        pool.release(ByteBuffer.allocate(64));
+        pool.release(ByteBuffer.allocateDirect(32));
+        pool.release(null);
+        assertEquals(0, pool.getPooledCount());
+    }
+
+}
@@ -0,0 +1,297 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Promise;
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LengthPrefixedFramingTest extends TestCase {
+
+    private ByteBufferPool mPool;
+    private LengthPrefixedFraming mFraming;
+    private PromiseServerSocketChannel mServer;
+    private PromiseSocketChannel mClient;
+    private PromiseSocketChannel mServerSide;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new ByteBufferPool(1024, 4);
+        mFraming = new LengthPrefixedFraming(mPool, 100000);
+        mServer = PromiseServerSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Promise<PromiseSocketChannel> acceptPromise = mServer.accept();
+        mClient = PromiseSocketChannel.connect(mServer.getLocalAddress()).waitForResult(5000);
+        mServerSide = acceptPromise.waitForResult(5000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mClient.close();
+        mServerSide.close();
+        mServer.close();
+    }
+
+    public void testFrames() throws Exception {
+        List<byte[]> frames = new ArrayList<byte[]>();
+        frames.add(new byte[0]);
+        frames.add(PromiseFileChannelTest.createData(10));
+        frames.add(PromiseFileChannelTest.createData(1020));
+        frames.add(PromiseFileChannelTest.createData(1021));
+        frames.add(PromiseFileChannelTest.createData(100000));
+
+        for (byte[] frame : frames) {
+            mFraming.writeFrame(mClient, ByteBuffer.wrap(frame)).waitForResult(5000);
+            ByteBuffer payload = mFraming.readFrame(mServerSide).waitForResult(5000);
+            byte[] readFrame = new byte[payload.remaining()];
+            payload.get(readFrame);
+            assertTrue(Arrays.equals(frame, readFrame));
+            mFraming.release(payload);
+        }
+
+        // The small frames reused pooled buffers
+        assertTrue(mPool.getPooledCount() > 0);
+    }
+
+    public void testEcho() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            // The channel allows one pending write only, so wait for each write
+            mFraming.writeFrame(mClient, ByteBuffer.wrap(PromiseFileChannelTest.createData(i * 7))).waitForResult(5000);
+
+            ByteBuffer payload = mFraming.readFrame(mServerSide).waitForResult(5000);
+            mFraming.writeFrame(mServerSide, payload).waitForResult(5000);
+            mFraming.release(payload);
+
+            ByteBuffer echo = mFraming.readFrame(mClient).waitForResult(5000);
+            assertEquals(i * 7, echo.remaining());
+            byte[] readFrame = new byte[echo.remaining()];
+            echo.get(readFrame);
+            assertTrue(Arrays.equals(PromiseFileChannelTest.createData(i * 7), readFrame));
+            mFraming.release(echo);
+        }
+    }
+
+    public void testFrameTooLarge() throws Exception {
+        try {
+            mFraming.writeFrame(mClient, ByteBuffer.allocate(100001));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException exc) {
+            // Expected
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LengthPrefixedFraming.HEADER_SIZE);
+        header.putInt(100001);
+        header.flip();
+        mClient.writeFully(header).waitForResult(5000);
+        try {
+            mFraming.readFrame(mServerSide).waitForResult(5000);
+            fail("Expected ProtocolException");
+        } catch (ProtocolException exc) {
+            // Expected
+        }
+    }
+
+    public void testPayloadReleasedOnFailedRead() throws Exception {
+        // The frame ends after 10 of 100 bytes
+        ByteBuffer frame = ByteBuffer.allocate(LengthPrefixedFraming.HEADER_SIZE + 10);
+        frame.putInt(100);
+        frame.flip();
+        mClient.writeFully(frame).waitForResult(5000);
+        mClient.close();
+
+        try {
+            mFraming.readFrame(mServerSide).waitForResult(5000);
+            fail("Expected EOFException");
+        } catch (EOFException exc) {
+            // Expected
+        }
+        assertEquals(1, mPool.getPooledCount());
+    }
+
+    public void testWriteBufferReleasedWhenChannelIsDone() throws Exception {
+        PendingWriteChannel channel = new PendingWriteChannel(mClient.getChannel());
+        Promise<Long> writePromise = mFraming.writeFrame(new PromiseSocketChannel(channel),
+                ByteBuffer.wrap(PromiseFileChannelTest.createData(10)));
+        writePromise.cancel();
+
+        // The channel still writes from the buffer, so it must not be reused yet
+        assertEquals(0, mPool.getPooledCount());
+
+        channel.writePending();
+        long timeout = System.currentTimeMillis() + 5000;
+        while (mPool.getPooledCount() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, mPool.getPooledCount());
+
+        ByteBuffer payload = mFraming.readFrame(mServerSide).waitForResult(5000);
+        assertEquals(10, payload.remaining());
+        mFraming.release(payload);
+    }
+
+    public void testReadFrameWithoutExecutorHop() throws Exception {
+        Executor defaultExecutor = Promise.getDefaultExecutor();
+        Promise.setDefaultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Never run anything
+            }
+        });
+        try {
+            mFraming.writeFrame(mClient, ByteBuffer.wrap(PromiseFileChannelTest.createData(10))).waitForResult(5000);
+            ByteBuffer payload = mFraming.readFrame(mServerSide).waitForResult(5000);
+            assertEquals(10, payload.remaining());
+        } finally {
+            Promise.setDefaultExecutor(defaultExecutor);
+        }
+    }
+
+
+    /**
+     * Holds back gathering writes until {@link #writePending()} is called.
+     */
+    private static class PendingWriteChannel extends AsynchronousSocketChannel {
+
+        private final AsynchronousSocketChannel mChannel;
+        private ByteBuffer[] mPendingSrcs;
+        private int mPendingOffset;
+        private int mPendingLength;
+        private CompletionHandler<Long, Object> mPendingHandler;
+
+        PendingWriteChannel(AsynchronousSocketChannel channel) {
+            super(channel.provider());
+            mChannel = channel;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <A> void write(ByteBuffer[] srcs, int offset, int length, long timeout, TimeUnit unit,
+                A attachment, CompletionHandler<Long, ? super A> handler)
+        {
+            mPendingSrcs = srcs;
+            mPendingOffset = offset;
+            mPendingLength = length;
+            mPendingHandler = (CompletionHandler<Long, Object>) handler;
+        }
+
+        void writePending() {
+            mChannel.write(mPendingSrcs, mPendingOffset, mPendingLength, 0, TimeUnit.MILLISECONDS, null,
+                    mPendingHandler);
+        }
+
+        @Override
+        public AsynchronousSocketChannel bind(SocketAddress local) throws IOException {
+            return mChannel.bind(local);
+        }
+
+        @Override
+        public <T> AsynchronousSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+            return mChannel.setOption(name, value);
+        }
+
+        @Override
+        public <T> T getOption(SocketOption<T> name) throws IOException {
+            return mChannel.getOption(name);
+        }
+
+        @Override
+        public Set<SocketOption<?>> supportedOptions() {
+            return mChannel.supportedOptions();
+        }
+
+        @Override
+        public AsynchronousSocketChannel shutdownInput() throws IOException {
+            return mChannel.shutdownInput();
+        }
+
+        @Override
+        public AsynchronousSocketChannel shutdownOutput() throws IOException {
+            return mChannel.shutdownOutput();
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() throws IOException {
+            return mChannel.getRemoteAddress();
+        }
+
+        @Override
+        public <A> void connect(SocketAddress remote, A attachment, CompletionHandler<Void, ? super A> handler) {
+            mChannel.connect(remote, attachment, handler);
+        }
+
+        @Override
+        public Future<Void> connect(SocketAddress remote) {
+            return mChannel.connect(remote);
+        }
+
+        @Override
+        public <A> void read(ByteBuffer dst, long timeout, TimeUnit unit, A attachment,
+                CompletionHandler<Integer, ? super A> handler)
+        {
+            mChannel.read(dst, timeout, unit, attachment, handler);
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer dst) {
+            return mChannel.read(dst);
+        }
+
+        @Override
+        public <A> void read(ByteBuffer[] dsts, int offset, int length, long timeout, TimeUnit unit, A attachment,
+                CompletionHandler<Long, ? super A> handler)
+        {
+            mChannel.read(dsts, offset, length, timeout, unit, attachment, handler);
+        }
+
+        @Override
+        public <A> void write(ByteBuffer src, long timeout, TimeUnit unit, A attachment,
+                CompletionHandler<Integer, ? super A> handler)
+        {
+            mChannel.write(src, timeout, unit, attachment, handler);
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer src) {
+            return mChannel.write(src);
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() throws IOException {
+            return mChannel.getLocalAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mChannel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+
+    }
+
+}
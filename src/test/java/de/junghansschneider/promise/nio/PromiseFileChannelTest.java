@@ -0,0 +1,217 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+
+public class PromiseFileChannelTest extends TestCase {
+
+    private Path mFile;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = Files.createTempFile("PromiseFileChannelTest", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Files.deleteIfExists(mFile);
+    }
+
+    public void testWriteAndRead() throws Exception {
+        byte[] data = createData(1000000);
+
+        try (PromiseFileChannel channel = PromiseFileChannel.open(mFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            assertEquals(data.length, channel.writeFully(ByteBuffer.wrap(data), 0).waitForResult(5000).intValue());
+            assertEquals(data.length, channel.size());
+
+            ByteBuffer buffer = channel.readFully(0, data.length).waitForResult(5000);
+            assertEquals(data.length, buffer.remaining());
+            byte[] readData = new byte[buffer.remaining()];
+            buffer.get(readData);
+            assertTrue(Arrays.equals(data, readData));
+
+            ByteBuffer smallBuffer = ByteBuffer.allocate(10);
+            assertEquals(10, channel.read(smallBuffer, 100).waitForResult(5000).intValue());
+            assertEquals(data[100], smallBuffer.get(0));
+        }
+    }
+
+    public void testReadBeyondEnd() throws Exception {
+        Files.write(mFile, createData(100));
+
+        try (PromiseFileChannel channel = PromiseFileChannel.open(mFile, StandardOpenOption.READ)) {
+            assertEquals(40, channel.readFully(60, 1000).waitForResult(5000).remaining());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10), 100).waitForResult(5000).intValue());
+        }
+    }
+
+    public void testFailure() throws Exception {
+        PromiseFileChannel channel = PromiseFileChannel.open(mFile, StandardOpenOption.READ);
+        try {
+            channel.write(ByteBuffer.allocate(10), 0).waitForResult(5000);
+            fail("Exception expected");
+        } catch (Exception exc) {
+            // The channel isn't writable
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testContinuationRefused() throws Exception {
+        Files.write(mFile, createData(100));
+
+        try (PromiseFileChannel channel = new PromiseFileChannel(new RefusingChannel(
+                AsynchronousFileChannel.open(mFile, StandardOpenOption.READ, StandardOpenOption.WRITE))))
+        {
+            // The file ends before the buffer is full -> readFully continues with a second read
+            try {
+                channel.readFully(0, 1000).waitForResult(5000);
+                fail("Exception expected");
+            } catch (IllegalArgumentException exc) {
+                assertEquals("Refused", exc.getMessage());
+            }
+
+            // The channel writes at most 10 bytes at once -> writeFully continues with a second write
+            try {
+                channel.writeFully(ByteBuffer.wrap(createData(100)), 0).waitForResult(5000);
+                fail("Exception expected");
+            } catch (IllegalArgumentException exc) {
+                assertEquals("Refused", exc.getMessage());
+            }
+        }
+    }
+
+    static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+
+    /**
+     * Accepts the first read or write of each readFully or writeFully call, but refuses to continue it by throwing.
+     * Writes at most 10 bytes at once.
+     */
+    private static class RefusingChannel extends AsynchronousFileChannel {
+
+        private final AsynchronousFileChannel mChannel;
+        private boolean mRefuse;
+
+        RefusingChannel(AsynchronousFileChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public <A> void read(ByteBuffer dst, long position, A attachment,
+                CompletionHandler<Integer, ? super A> handler)
+        {
+            refuseContinuation();
+            mChannel.read(dst, position, attachment, handler);
+        }
+
+        @Override
+        public <A> void write(final ByteBuffer src, long position, A attachment,
+                final CompletionHandler<Integer, ? super A> handler)
+        {
+            refuseContinuation();
+            final ByteBuffer chunk = src.duplicate();
+            chunk.limit(Math.min(chunk.limit(), chunk.position() + 10));
+            mChannel.write(chunk, position, attachment, new CompletionHandler<Integer, A>() {
+                @Override
+                public void completed(Integer count, A attachment) {
+                    src.position(chunk.position());
+                    handler.completed(count, attachment);
+                }
+
+                @Override
+                public void failed(Throwable thr, A attachment) {
+                    handler.failed(thr, attachment);
+                }
+            });
+        }
+
+        private synchronized void refuseContinuation() {
+            mRefuse = ! mRefuse;
+            if (! mRefuse) {
+                throw new IllegalArgumentException("Refused");
+            }
+        }
+
+        @Override
+        public long size() throws IOException {
+            return mChannel.size();
+        }
+
+        @Override
+        public AsynchronousFileChannel truncate(long size) throws IOException {
+            mChannel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            mChannel.force(metaData);
+        }
+
+        @Override
+        public <A> void lock(long position, long size, boolean shared, A attachment,
+                CompletionHandler<FileLock, ? super A> handler)
+        {
+            mChannel.lock(position, size, shared, attachment, handler);
+        }
+
+        @Override
+        public Future<FileLock> lock(long position, long size, boolean shared) {
+            return mChannel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return mChannel.tryLock(position, size, shared);
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer dst, long position) {
+            return mChannel.read(dst, position);
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer src, long position) {
+            return mChannel.write(src, position);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mChannel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+
+    }
+
+}
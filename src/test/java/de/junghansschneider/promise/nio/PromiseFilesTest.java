@@ -0,0 +1,65 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class PromiseFilesTest extends TestCase {
+
+    private Path mSource;
+    private Path mTarget;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = Files.createTempFile("PromiseFilesTest", ".bin");
+        mTarget = Files.createTempFile("PromiseFilesTest", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        Files.deleteIfExists(mSource);
+        Files.deleteIfExists(mTarget);
+    }
+
+    public void testCopy() throws Exception {
+        byte[] data = PromiseFileChannelTest.createData(3000000);
+        Files.write(mSource, data);
+        Files.write(mTarget, new byte[5000000]);
+
+        assertEquals(data.length, PromiseFiles.copy(mSource, mTarget, null).waitForResult(5000).longValue());
+        assertTrue(Arrays.equals(data, Files.readAllBytes(mTarget)));
+    }
+
+    public void testMapReadOnly() throws Exception {
+        byte[] data = PromiseFileChannelTest.createData(1000);
+        Files.write(mSource, data);
+
+        MappedByteBuffer region = PromiseFiles.mapReadOnly(mSource, 100, 50, null).waitForResult(5000);
+        assertEquals(50, region.remaining());
+        assertEquals(data[100], region.get(0));
+        assertEquals(data[149], region.get(49));
+    }
+
+    public void testReadMapped() throws Exception {
+        byte[] data = PromiseFileChannelTest.createData(1000);
+        Files.write(mSource, data);
+
+        ByteBuffer buffer = PromiseFiles.readMapped(mSource, 900, ByteBuffer.allocateDirect(500), null)
+                .waitForResult(5000);
+        assertEquals(100, buffer.remaining());
+        assertEquals(data[900], buffer.get(0));
+    }
+
+}
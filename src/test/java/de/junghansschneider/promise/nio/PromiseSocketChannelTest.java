@@ -0,0 +1,137 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.nio;
+
+import de.junghansschneider.promise.Promise;
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.ReadPendingException;
+import java.util.Arrays;
+
+public class PromiseSocketChannelTest extends TestCase {
+
+    private PromiseServerSocketChannel mServer;
+    private PromiseSocketChannel mClient;
+    private PromiseSocketChannel mServerSide;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = PromiseServerSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Promise<PromiseSocketChannel> acceptPromise = mServer.accept();
+        mClient = PromiseSocketChannel.connect(mServer.getLocalAddress()).waitForResult(5000);
+        mServerSide = acceptPromise.waitForResult(5000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mClient.close();
+        mServerSide.close();
+        mServer.close();
+    }
+
+    public void testWriteAndRead() throws Exception {
+        ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertEquals(3, mClient.write(src).waitForResult(5000).intValue());
+
+        ByteBuffer dst = ByteBuffer.allocate(10);
+        int count = mServerSide.read(dst).waitForResult(5000);
+        assertTrue(count > 0 && count <= 3);
+        assertEquals(1, dst.get(0));
+    }
+
+    public void testWriteFullyAndReadFully() throws Exception {
+        byte[] data = PromiseFileChannelTest.createData(3000000);
+
+        // The data is much larger than the socket buffers, so reading and writing must happen concurrently
+        Promise<ByteBuffer> readPromise = mServerSide.readFully(ByteBuffer.allocateDirect(data.length));
+        Promise<Long> writePromise = mClient.writeFully(ByteBuffer.wrap(data, 0, 1000),
+                ByteBuffer.wrap(data, 1000, data.length - 1000));
+
+        assertEquals(data.length, writePromise.waitForResult(5000).longValue());
+        ByteBuffer buffer = readPromise.waitForResult(5000);
+        assertEquals(data.length, buffer.remaining());
+        byte[] readData = new byte[buffer.remaining()];
+        buffer.get(readData);
+        assertTrue(Arrays.equals(data, readData));
+    }
+
+    public void testReadFullyAtEndOfStream() throws Exception {
+        mClient.writeFully(ByteBuffer.wrap(new byte[5])).waitForResult(5000);
+        mClient.close();
+
+        try {
+            mServerSide.readFully(ByteBuffer.allocate(10)).waitForResult(5000);
+            fail("Expected EOFException");
+        } catch (EOFException exc) {
+            // Expected
+        }
+        assertEquals(-1, mServerSide.read(ByteBuffer.allocate(10)).waitForResult(5000).intValue());
+    }
+
+    public void testConnectFails() throws Exception {
+        PromiseServerSocketChannel server = PromiseServerSocketChannel.bind(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        server.close();
+
+        try {
+            PromiseSocketChannel.connect(address).waitForResult(5000);
+            fail("Expected connect to fail");
+        } catch (IOException exc) {
+            // Expected
+        }
+    }
+
+    public void testAcceptCancelled() throws Exception {
+        mServer.accept().cancel();
+
+        // The accepted connection isn't handed to anybody, so it's closed
+        PromiseSocketChannel client = PromiseSocketChannel.connect(mServer.getLocalAddress()).waitForResult(5000);
+        try {
+            assertEquals(-1, client.read(ByteBuffer.allocate(10)).waitForResult(5000).intValue());
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testRefusedReadAndWrite() throws Exception {
+        // Only one read may be pending at a time
+        Promise<Integer> pendingRead = mServerSide.read(ByteBuffer.allocate(10));
+        Promise<Integer> refusedRead = mServerSide.read(ByteBuffer.allocate(10));
+        try {
+            refusedRead.waitForResult(5000);
+            fail("Expected ReadPendingException");
+        } catch (ReadPendingException exc) {
+            // Expected
+        }
+        mClient.write(ByteBuffer.wrap(new byte[] { 1 })).waitForResult(5000);
+        assertEquals(1, pendingRead.waitForResult(5000).intValue());
+
+        PromiseSocketChannel unconnected = new PromiseSocketChannel(AsynchronousSocketChannel.open());
+        try {
+            Promise<Integer> refusedWrite = unconnected.write(ByteBuffer.wrap(new byte[] { 1 }));
+            try {
+                refusedWrite.waitForResult(5000);
+                fail("Expected NotYetConnectedException");
+            } catch (NotYetConnectedException exc) {
+                // Expected
+            }
+        } finally {
+            unconnected.close();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+//
+//  Copyright © 2014 Junghans und Schneider. License: MIT
+//  https://github.com/junghans-schneider/Promise4Java
+//
+
+package de.junghansschneider.promise.jfr;
+
+import de.junghansschneider.promise.Deferred;
+import de.junghansschneider.promise.Promise;
+import de.junghansschneider.promise.PromiseThenHandler;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+public class PromiseFlightRecorderTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        assertTrue(PromiseFlightRecorder.isAvailable());
+        assertTrue(PromiseFlightRecorder.install());
+        assertTrue(PromiseFlightRecorder.isInstalled());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        PromiseFlightRecorder.uninstall();
+        assertFalse(PromiseFlightRecorder.isInstalled());
+    }
+
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("PromiseFlightRecorderTest", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("de.junghansschneider.promise.Handler").withThreshold(Duration.ofMillis(10));
+            recording.enable("de.junghansschneider.promise.UnhandledRejection");
+            recording.enable("de.junghansschneider.promise.Cancel").withThreshold(Duration.ZERO);
+            recording.start();
+
+            // A slow handler passes the threshold, a fast one doesn't
+            Promise.resolvedPromise("slow").then(new SlowHandler()).waitForResult(5000);
+            Promise.resolvedPromise("fast").then(new FastHandler()).waitForResult(5000);
+
+            Deferred<String> deferred = new Deferred<String>();
+            deferred.reject(new IllegalStateException("Nobody handles this"));
+
+            new Deferred<String>().getPromise().then(new SlowHandler()).cancel(true);
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            int slowHandlerCount = 0;
+            int fastHandlerCount = 0;
+            boolean foundRejection = false;
+            boolean foundCancel = false;
+            for (RecordedEvent event : events) {
+                String name = event.getEventType().getName();
+                if (name.equals("de.junghansschneider.promise.Handler") && ! event.getBoolean("rejected")) {
+                    assertTrue(event.getDuration().toMillis() >= 10);
+                    String handlerClass = event.getString("handlerClass");
+                    if (handlerClass.equals(SlowHandler.class.getName())) {
+                        slowHandlerCount++;
+                    } else if (handlerClass.equals(FastHandler.class.getName())) {
+                        fastHandlerCount++;
+                    }
+                } else if (name.equals("de.junghansschneider.promise.UnhandledRejection")) {
+                    foundRejection = true;
+                    assertEquals(IllegalStateException.class.getName(), event.getString("exceptionClass"));
+                    assertEquals("Nobody handles this", event.getString("message"));
+                } else if (name.equals("de.junghansschneider.promise.Cancel")) {
+                    foundCancel = true;
+                    assertEquals(2, event.getInt("cancelledCount"));
+                }
+            }
+            assertEquals(1, slowHandlerCount);
+            assertEquals(0, fastHandlerCount);
+            assertTrue(foundRejection);
+            assertTrue(foundCancel);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    private static class SlowHandler implements PromiseThenHandler<String, String> {
+        @Override
+        public Promise<String> onValue(String value) throws Exception {
+            Thread.sleep(20);
+            return Promise.resolvedPromise(value);
+        }
+    }
+
+    private static class FastHandler implements PromiseThenHandler<String, String> {
+        @Override
+        public Promise<String> onValue(String value) {
+            return Promise.resolvedPromise(value);
+        }
+    }
+
+}